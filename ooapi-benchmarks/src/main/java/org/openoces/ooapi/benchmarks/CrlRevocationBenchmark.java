@@ -0,0 +1,75 @@
+package org.openoces.ooapi.benchmarks;
+
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openoces.ooapi.certificate.OcesCertificate;
+import org.openoces.ooapi.certificate.OcesCertificateFactory;
+import org.openoces.ooapi.fixtures.SyntheticCrl;
+import org.openoces.ooapi.fixtures.TestPki;
+import org.openoces.ooapi.validation.CRL;
+
+/**
+ * Measures the revocation check against CRLs of different sizes: decoding a downloaded CRL, building the index of
+ * revoked serial numbers when a new CRL is cached, and looking up a certificate in a cached CRL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrlRevocationBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int crlSize;
+
+	private byte[] encodedCrl;
+	private X509CRL x509Crl;
+	private CRL crl;
+	private OcesCertificate certificate;
+
+	@Setup
+	public void setup() throws Exception {
+		TestPki pki = TestPki.getInstance();
+		encodedCrl = SyntheticCrl.create(pki, crlSize);
+		x509Crl = SyntheticCrl.parse(encodedCrl);
+		crl = new CRL(x509Crl);
+
+		ArrayList<X509Certificate> chain = new ArrayList<X509Certificate>();
+		chain.add(pki.getEndUser());
+		chain.add(pki.getIssuingCa());
+		certificate = OcesCertificateFactory.getInstance().generate(chain);
+		if (crl.isRevoked(certificate)) {
+			throw new IllegalStateException("The end user certificate must not be on the synthetic CRL");
+		}
+	}
+
+	@Benchmark
+	public X509CRL decode() {
+		return SyntheticCrl.parse(encodedCrl);
+	}
+
+	@Benchmark
+	public CRL buildIndex() {
+		return new CRL(x509Crl);
+	}
+
+	@Benchmark
+	public boolean isRevoked() {
+		return crl.isRevoked(certificate);
+	}
+}
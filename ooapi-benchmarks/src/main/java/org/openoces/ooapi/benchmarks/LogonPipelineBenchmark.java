@@ -0,0 +1,73 @@
+package org.openoces.ooapi.benchmarks;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openoces.ooapi.certificate.CertificateStatus;
+import org.openoces.ooapi.fixtures.OpenlogonFixture;
+import org.openoces.ooapi.fixtures.SyntheticCrl;
+import org.openoces.ooapi.fixtures.TestPki;
+import org.openoces.ooapi.validation.CRL;
+import org.openoces.ooapi.validation.CRLDistributionPointsExtractor;
+import org.openoces.ooapi.validation.CrlStore;
+import org.openoces.securitypackage.LogonHandler;
+
+/**
+ * Measures a whole NemID logon as handled by <code>LogonHandler</code>: parsing, checking the challenge and logonto
+ * properties, building and verifying the certificate chain, verifying the signature, and checking the revocation
+ * status of the certificate and its issuing CA with the <code>PartitionedCrlRevocationChecker</code> and its
+ * <code>CrlCache</code>. Downloading the CRLs is not part of the measurement, as the benchmarks run offline - they are
+ * put in the CRL store before the checker is created, as if they had been downloaded by an earlier run.
+ * 
+ * The time per logon is measured on a single thread, the number of logons per second the shared checker can handle
+ * with e.g. <code>-bm thrpt -tu s -t 8</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LogonPipelineBenchmark {
+	private static final String CHALLENGE = "benchmark-challenge";
+
+	@Param({ "1000", "100000" })
+	public int crlSize;
+
+	private String xml;
+
+	@Setup
+	public void setup() throws Exception {
+		TestPki pki = TestPki.getInstance();
+		xml = OpenlogonFixture.create(pki, CHALLENGE);
+
+		// each fork is a new JVM, so the revocation checker is not created until the first logon below
+		CrlStore crlStore = new CrlStore(pki.getCrlStoreDirectory());
+		crlStore.save(pki.getEnvironment(), getCrlPartition(pki.getEndUser()), new CRL(SyntheticCrl.parse(SyntheticCrl.create(pki, crlSize))));
+		crlStore.save(pki.getEnvironment(), getCrlPartition(pki.getIssuingCa()), new CRL(SyntheticCrl.parse(SyntheticCrl.createRootCrl(pki, 10))));
+
+		if (logon() != CertificateStatus.VALID) {
+			throw new IllegalStateException("The generated Open Logon document is not accepted");
+		}
+	}
+
+	@Benchmark
+	public CertificateStatus logon() throws Exception {
+		return LogonHandler.validateAndExtractCertificateAndStatus(xml, CHALLENGE, OpenlogonFixture.LOGONTO).getCertificateStatus();
+	}
+
+	private static String getCrlPartition(X509Certificate certificate) {
+		return CRLDistributionPointsExtractor.extractCRLDistributionPoints(certificate).getPartitionedCRLDistributionPoint();
+	}
+}
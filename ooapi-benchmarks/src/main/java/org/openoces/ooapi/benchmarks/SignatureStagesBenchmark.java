@@ -0,0 +1,94 @@
+package org.openoces.ooapi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.utils.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openoces.ooapi.certificate.ChainVerifier;
+import org.openoces.ooapi.certificate.OcesCertificate;
+import org.openoces.ooapi.certificate.OcesCertificateFactory;
+import org.openoces.ooapi.fixtures.OpenlogonFixture;
+import org.openoces.ooapi.fixtures.TestPki;
+import org.openoces.ooapi.signatures.OpensignAbstractSignature;
+import org.openoces.ooapi.signatures.OpensignSignatureFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Measures each stage of validating an Open Logon document on its own. The certificate chain is built through
+ * <code>OcesCertificateFactory</code>, which reuses issuing CA chains it has verified before, so
+ * <code>buildChain</code> measures the steady state of a running service, while <code>verifyTrust</code> always
+ * verifies the whole chain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignatureStagesBenchmark {
+	private String xml;
+	private List<X509Certificate> certificates;
+	private OcesCertificate certificate;
+	private XMLSignature xmlSignature;
+
+	@Setup
+	public void setup() throws Exception {
+		TestPki pki = TestPki.getInstance();
+		xml = OpenlogonFixture.create(pki, "benchmark-challenge");
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		Element signatureElement = (Element) doc.getElementsByTagNameNS(Constants.SignatureSpecNS, Constants._TAG_SIGNATURE).item(0);
+		xmlSignature = new XMLSignature(signatureElement, null);
+
+		certificates = new ArrayList<X509Certificate>();
+		for (int i = 0; i < xmlSignature.getKeyInfo().lengthX509Data(); i++) {
+			for (int j = 0; j < xmlSignature.getKeyInfo().itemX509Data(i).lengthCertificate(); j++) {
+				certificates.add(xmlSignature.getKeyInfo().itemX509Data(i).itemCertificate(j).getX509Certificate());
+			}
+		}
+		certificate = OcesCertificateFactory.getInstance().generate(new ArrayList<X509Certificate>(certificates));
+		if (!xmlSignature.checkSignatureValue(pki.getEndUser())) {
+			throw new IllegalStateException("The generated Open Logon document does not verify");
+		}
+	}
+
+	@Benchmark
+	public OpensignAbstractSignature parse() throws Exception {
+		return OpensignSignatureFactory.getInstance().generateOpensignSignature(xml);
+	}
+
+	@Benchmark
+	public OcesCertificate buildChain() throws Exception {
+		return OcesCertificateFactory.getInstance().generate(new ArrayList<X509Certificate>(certificates));
+	}
+
+	@Benchmark
+	public boolean verifyTrust() {
+		return ChainVerifier.verifyTrust(certificate);
+	}
+
+	@Benchmark
+	public boolean verifySignature() throws Exception {
+		return xmlSignature.checkSignatureValue(certificate.exportCertificate());
+	}
+}
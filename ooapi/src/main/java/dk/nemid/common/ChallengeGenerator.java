@@ -20,20 +20,61 @@
 package dk.nemid.common;
 
 import javax.servlet.http.HttpSession;
+
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Generates the login challenges and binds them to the session.
+ * 
+ * Each thread has its own SHA1PRNG generator, seeded once from the platform's non-blocking source, so generating
+ * a challenge never waits for entropy or for another thread. Challenges are 128 bit, hex encoded, and are also
+ * registered in the <code>ChallengeStore</code>, which makes them single use and limits how long they can be used.
+ */
 public class ChallengeGenerator {
 	private static final String CHALLENGE_SESSION_KEY = "dk.os2faktor.nemid.challenge";
+	private static final int CHALLENGE_BYTES = 16;
+	private static final SecureRandom seedSource = new SecureRandom();
+	private static final ChallengeStore challengeStore = new ChallengeStore(NemIdProperties.getChallengeValidity());
+
+	private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+
+		@Override
+		protected SecureRandom initialValue() {
+			try {
+				SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+
+				// seeding explicitly before first use stops SHA1PRNG from seeding itself from the blocking source
+				byte[] seed = new byte[32];
+				seedSource.nextBytes(seed);
+				random.setSeed(seed);
+
+				return random;
+			}
+			catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
 
 	public static String generateChallenge(HttpSession session) {
 		String challenge = generateChallenge();
 
-		session.setAttribute(CHALLENGE_SESSION_KEY, challenge);
+		setChallenge(session, challenge);
 
 		return challenge;
 	}
-	
+
+	/**
+	 * Binds a challenge that was generated ahead of time to the session
+	 */
+	public static void setChallenge(HttpSession session, String challenge) {
+		challengeStore.register(challenge);
+		session.setAttribute(CHALLENGE_SESSION_KEY, challenge);
+	}
+
 	public static String getChallenge(HttpSession httpSession) {
 		String challenge = (String) httpSession.getAttribute(ChallengeGenerator.CHALLENGE_SESSION_KEY);
 
@@ -43,19 +84,17 @@ public class ChallengeGenerator {
 
 		httpSession.removeAttribute(ChallengeGenerator.CHALLENGE_SESSION_KEY);
 
+		if (!challengeStore.consume(challenge)) {
+			throw new RuntimeException("Challenge has expired or has already been used");
+		}
+
 		return challenge;
 	}
 
-	private static String generateChallenge() {
-		String challenge;
+	public static String generateChallenge() {
+		byte[] bytes = new byte[CHALLENGE_BYTES];
+		randoms.get().nextBytes(bytes);
 
-		try {
-			challenge = "" + SecureRandom.getInstance("SHA1PRNG").nextLong();
-		}
-		catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
-		
-		return challenge;
+		return Hex.encodeHexString(bytes);
 	}
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2010, DanID A/S
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of the DanID A/S nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.nemid.common;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side register of the challenges that have been handed out. A challenge can be consumed once, within its
+ * validity - expired challenges are purged as new ones are registered.
+ */
+public class ChallengeStore {
+	private static final int PURGE_THRESHOLD = 1000;
+
+	private final ConcurrentMap<String, Long> challenges = new ConcurrentHashMap<String, Long>();
+	private final long validity;
+	private volatile long nextPurge;
+
+	/**
+	 * @param validity seconds a challenge can be consumed after it has been registered
+	 */
+	public ChallengeStore(int validity) {
+		this.validity = TimeUnit.SECONDS.toMillis(validity);
+	}
+
+	public void register(String challenge) {
+		long now = System.currentTimeMillis();
+		challenges.put(challenge, now + validity);
+
+		if (challenges.size() > PURGE_THRESHOLD && now >= nextPurge) {
+			purge(now);
+		}
+	}
+
+	/**
+	 * @return true if the challenge was registered and has not expired, after which it can not be consumed again
+	 */
+	public boolean consume(String challenge) {
+		Long expires = challenges.remove(challenge);
+
+		return expires != null && expires > System.currentTimeMillis();
+	}
+
+	private synchronized void purge(long now) {
+		if (now < nextPurge) {
+			return;
+		}
+		nextPurge = now + validity / 10;
+
+		for (Iterator<Long> iterator = challenges.values().iterator(); iterator.hasNext();) {
+			if (iterator.next() <= now) {
+				iterator.remove();
+			}
+		}
+	}
+
+	public int size() {
+		return challenges.size();
+	}
+}
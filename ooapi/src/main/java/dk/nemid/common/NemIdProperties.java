@@ -21,6 +21,8 @@ package dk.nemid.common;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import org.openoces.ooapi.environment.Environments;
@@ -29,8 +31,15 @@ public class NemIdProperties {
 	private static String serverUrlPrefix;
 	private static String appletParameterSigningKeystore;
 	private static String appletParameterSigningKeystorePassword;
+	private static int appletParameterSigningKeystoreReloadInterval;
 	private static String serviceProviderName;
 	private static Environments.Environment oces2Environment;
+	private static int challengeValidity;
+	private static boolean presignEnabled;
+	private static List<String> presignOrigins;
+	private static int presignPoolSize;
+	private static int presignValidity;
+	private static int presignThreads;
 
 	static {
 		readProperties();
@@ -55,14 +64,33 @@ public class NemIdProperties {
 		serverUrlPrefix = getRequiredProperty(properties, "nemid.applet.server.url.prefix", " to the URL of the applet providing server, eg. https://applet.danid.dk");
 		appletParameterSigningKeystore = getRequiredProperty(properties, "nemid.applet.parameter.signing.keystore", " to a classpath path to the keystore, eg. /applet-parameter-signing-keystore-cvr30808460-uid1263281782319.jks");
 		appletParameterSigningKeystorePassword = getRequiredProperty(properties, "nemid.applet.parameter.signing.keystore.password", " to the password to the keystore pointed to by nemid.applet.parameter.signing.keystore");
+		appletParameterSigningKeystoreReloadInterval = Integer.parseInt(properties.getProperty("nemid.applet.parameter.signing.keystore.reload.interval", "0"));
 		serviceProviderName = getRequiredProperty(properties, "nemid.serviceprovider.logonto", " to you service provider name");
 		oces2Environment = getOces2EnvironmentFromProperty(properties, "oces2.environment");
+		challengeValidity = Integer.parseInt(properties.getProperty("nemid.challenge.validity", "600"));
+		presignEnabled = Boolean.parseBoolean(properties.getProperty("nemid.presign.enabled", "false"));
+		presignOrigins = getListProperty(properties, "nemid.presign.origins");
+		presignPoolSize = Integer.parseInt(properties.getProperty("nemid.presign.pool.size", "20"));
+		presignValidity = Integer.parseInt(properties.getProperty("nemid.presign.validity", "60"));
+		presignThreads = Integer.parseInt(properties.getProperty("nemid.presign.threads", "1"));
 	}
 
 	private static Environments.Environment getOces2EnvironmentFromProperty(Properties properties, String s) {
 		return Environments.Environment.valueOf(getRequiredProperty(properties, s, " to the environment to check nemid environment against, eg. OCESII_DANID_ENV_PROD, " + "OCESII_DANID_ENV_PROD or OCESII_DANID_ENV_EXTERNALTEST").toUpperCase());
 	}
 
+	private static List<String> getListProperty(Properties properties, String key) {
+		List<String> values = new ArrayList<String>();
+
+		for (String value : properties.getProperty(key, "").split(",")) {
+			if (value.trim().length() > 0) {
+				values.add(value.trim());
+			}
+		}
+
+		return values;
+	}
+
 	private static String getRequiredProperty(Properties properties, String key, String helpMsg) {
 		String value = properties.getProperty(key);
 
@@ -92,4 +120,47 @@ public class NemIdProperties {
 	public static String getAppletParameterSigningKeystorePassword() {
 		return appletParameterSigningKeystorePassword;
 	}
+
+	/**
+	 * Seconds between checks for a modified signing keystore, 0 if the keystore is only loaded once
+	 */
+	public static int getAppletParameterSigningKeystoreReloadInterval() {
+		return appletParameterSigningKeystoreReloadInterval;
+	}
+
+	/**
+	 * Seconds a challenge can be used after it has been bound to a session
+	 */
+	public static int getChallengeValidity() {
+		return challengeValidity;
+	}
+
+	public static boolean isPresignEnabled() {
+		return presignEnabled;
+	}
+
+	/**
+	 * The origins to presign client parameters for, as sent in ORIGIN, eg. https://login.example.dk
+	 */
+	public static List<String> getPresignOrigins() {
+		return presignOrigins;
+	}
+
+	/**
+	 * The number of presigned parameter sets to keep ready per origin
+	 */
+	public static int getPresignPoolSize() {
+		return presignPoolSize;
+	}
+
+	/**
+	 * Seconds a presigned parameter set can be handed out after it was signed
+	 */
+	public static int getPresignValidity() {
+		return presignValidity;
+	}
+
+	public static int getPresignThreads() {
+		return presignThreads;
+	}
 }
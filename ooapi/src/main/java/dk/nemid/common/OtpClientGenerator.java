@@ -32,38 +32,55 @@ import org.apache.commons.codec.binary.Base64;
 import org.openoces.ooapi.web.Signer;
 
 public class OtpClientGenerator {
-	private List<Parameter> params = new ArrayList<Parameter>();
-	private Signer signer;
+	private List<Parameter> params;
 
 	public OtpClientGenerator(HttpServletRequest request, String origin) {
-		String url = NemIdProperties.getAppletParameterSigningKeystore();
-		String keyStorePw = NemIdProperties.getAppletParameterSigningKeystorePassword();
+		if (origin == null) {
+			origin = generateOrigin(request);
+		}
 
-		signer = new Signer(url, keyStorePw);
+		PresignedParameterPool.PresignedParameters presigned = PresignedParameterPool.getInstance().take(origin);
+		if (presigned != null) {
+			ChallengeGenerator.setChallenge(request.getSession(), presigned.getChallenge());
+			params = presigned.getParams();
+			return;
+		}
 
 		try {
-			setClientFlow(request, origin);
+			params = createParameters(origin, ChallengeGenerator.generateChallenge(request.getSession()));
 		}
 		catch (Exception e) {
 			throw new RuntimeException("Unable to set client flow", e);
 		}
 	}
 
-	private void setClientFlow(HttpServletRequest request, String origin) throws Exception {
-		if (origin == null) {
-			origin = generateOrigin(request);
-		}
+	/**
+	 * Creates the signed client parameters for the origin, bound to the challenge
+	 */
+	static List<Parameter> createParameters(String origin, String challenge) {
+		Signer signer = getSigner();
+		List<Parameter> params = new ArrayList<Parameter>();
 
 		params.add(new ParameterImpl("TIMESTAMP", getTimestamp(), true));
 		params.add(new ParameterImpl("SP_CERT", signer.getCertificate()));
-		params.add(new ParameterImpl("SIGN_PROPERTIES", "challenge=" + ChallengeGenerator.generateChallenge(request.getSession())));
+		params.add(new ParameterImpl("SIGN_PROPERTIES", "challenge=" + challenge));
 		params.add(new ParameterImpl("ORIGIN", origin, false));
 		params.add(new ParameterImpl("CLIENTFLOW", "OCESLOGIN2"));
 
 		String normalizedParameters = ParameterImpl.normalize(params);
 
 		params.add(new ParameterImpl("PARAMS_DIGEST", ParameterImpl.computeDigest(normalizedParameters)));
-		params.add(new ParameterImpl("DIGEST_SIGNATURE", computeSignature(normalizedParameters)));
+		params.add(new ParameterImpl("DIGEST_SIGNATURE", computeSignature(signer, normalizedParameters)));
+
+		return params;
+	}
+
+	private static Signer getSigner() {
+		String url = NemIdProperties.getAppletParameterSigningKeystore();
+		String keyStorePw = NemIdProperties.getAppletParameterSigningKeystorePassword();
+		int reloadInterval = NemIdProperties.getAppletParameterSigningKeystoreReloadInterval();
+
+		return Signer.getInstance(url, keyStorePw, reloadInterval);
 	}
 
 	public String getJSElement() {
@@ -75,13 +92,13 @@ public class OtpClientGenerator {
 		return sb.toString();
 	}
 
-	private String computeSignature(String normalizedParameters) {
+	private static String computeSignature(Signer signer, String normalizedParameters) {
 		byte[] signedBytes = signer.calculateSignature(normalizedParameters.getBytes());
 
 		return new String(Base64.encodeBase64(signedBytes));
 	}
 
-	private String getTimestamp() {
+	private static String getTimestamp() {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
 		long millis = System.currentTimeMillis();
 
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2010, DanID A/S
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ *  - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *  - Neither the name of the DanID A/S nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE
+ * USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package dk.nemid.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openoces.ooapi.validation.DaemonThreadFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of client parameter sets that are signed ahead of time, so the login page does not have to do the RSA
+ * signature on the request thread. Each set is bound to its own fresh challenge and is only handed out within
+ * the configured validity, after which it is discarded and replaced in the background.
+ * 
+ * The pool is only active if <code>nemid.presign.enabled</code> is set, and only for the origins listed in
+ * <code>nemid.presign.origins</code> - for any other origin <code>take</code> returns null and the parameters
+ * must be signed on the request thread.
+ */
+@Slf4j
+public class PresignedParameterPool {
+	private static final long REFILL_INTERVAL = 1000;
+	private static volatile PresignedParameterPool instance;
+
+	private final Map<String, BlockingQueue<PresignedParameters>> queues = new HashMap<String, BlockingQueue<PresignedParameters>>();
+	private final long validity;
+	private ScheduledExecutorService workers;
+
+	private PresignedParameterPool(List<String> origins, int size, int validity) {
+		this.validity = TimeUnit.SECONDS.toMillis(validity);
+
+		for (String origin : origins) {
+			queues.put(origin, new LinkedBlockingQueue<PresignedParameters>(size));
+		}
+	}
+
+	/**
+	 * Gives the pool, starting the background signing the first time if it is enabled. Only the first call locks,
+	 * as this is called for every login page.
+	 */
+	public static PresignedParameterPool getInstance() {
+		PresignedParameterPool pool = instance;
+		if (pool == null) {
+			synchronized (PresignedParameterPool.class) {
+				pool = instance;
+				if (pool == null) {
+					List<String> origins = NemIdProperties.isPresignEnabled() ? NemIdProperties.getPresignOrigins() : Collections.<String>emptyList();
+
+					pool = new PresignedParameterPool(origins, NemIdProperties.getPresignPoolSize(), NemIdProperties.getPresignValidity());
+					pool.start(NemIdProperties.getPresignThreads());
+					instance = pool;
+				}
+			}
+		}
+		return pool;
+	}
+
+	private void start(int threads) {
+		if (queues.isEmpty()) {
+			return;
+		}
+
+		workers = Executors.newScheduledThreadPool(threads, new DaemonThreadFactory("nemid-presign-"));
+		for (final Map.Entry<String, BlockingQueue<PresignedParameters>> entry : queues.entrySet()) {
+			workers.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					refill(entry.getKey(), entry.getValue());
+				}
+			}, 0, REFILL_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+
+		log.info("Presigning NemID parameters for " + queues.keySet() + " with " + threads + " threads");
+	}
+
+	/**
+	 * Takes a presigned parameter set for the origin
+	 * 
+	 * @return the parameter set, or null if the origin is not presigned or the pool is empty
+	 */
+	public PresignedParameters take(String origin) {
+		BlockingQueue<PresignedParameters> queue = queues.get(origin);
+		if (queue == null) {
+			return null;
+		}
+
+		PresignedParameters presigned;
+		while ((presigned = queue.poll()) != null) {
+			if (!presigned.isExpired(validity)) {
+				return presigned;
+			}
+		}
+
+		log.debug("No presigned parameters available for " + origin);
+		return null;
+	}
+
+	private void refill(String origin, BlockingQueue<PresignedParameters> queue) {
+		try {
+			// the oldest sets are at the head of the queue, so expired sets are removed from there
+			PresignedParameters head;
+			while ((head = queue.peek()) != null && head.isExpired(validity)) {
+				queue.remove(head);
+			}
+
+			while (queue.remainingCapacity() > 0) {
+				String challenge = ChallengeGenerator.generateChallenge();
+				if (!queue.offer(new PresignedParameters(OtpClientGenerator.createParameters(origin, challenge), challenge))) {
+					break;
+				}
+			}
+		}
+		catch (Exception e) {
+			log.warn("Failed to presign NemID parameters for " + origin, e);
+		}
+	}
+
+	/**
+	 * A signed client parameter set and the challenge it is bound to
+	 */
+	public static class PresignedParameters {
+		private final List<Parameter> params;
+		private final String challenge;
+		private final long created;
+
+		PresignedParameters(List<Parameter> params, String challenge) {
+			this.params = params;
+			this.challenge = challenge;
+			this.created = System.currentTimeMillis();
+		}
+
+		public List<Parameter> getParams() {
+			return params;
+		}
+
+		public String getChallenge() {
+			return challenge;
+		}
+
+		boolean isExpired(long validity) {
+			return System.currentTimeMillis() - created >= validity;
+		}
+	}
+}
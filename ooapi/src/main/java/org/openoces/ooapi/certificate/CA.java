@@ -33,6 +33,8 @@ import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
+import org.openoces.ooapi.utils.X509CertificatePropertyExtrator;
+
 /**
  * Certificate Authority (CA). This class can either model a root CA or an
  * issuing CA. If it is a root CA the signing CA will be null
@@ -41,8 +43,10 @@ import java.security.cert.X509Certificate;
 @SuppressWarnings("serial")
 public class CA implements CertificateChainElement, Serializable {
 
-	private X509Certificate certificate;
-	private CA issuingCa;
+	private final X509Certificate certificate;
+	private final CA issuingCa;
+	private transient volatile Boolean selfSigned;
+	private transient volatile String fingerprint;
 
 	/**
 	 * Constructs a CA with <code>certificate</code> as the certificate of this
@@ -85,9 +89,23 @@ public class CA implements CertificateChainElement, Serializable {
 	 * Returns <code>true></code> if this CA is a root CA otherwise false
 	 */
 	public boolean isRoot() {
-		if (issuingCa != null) {
-			return false;
+		return issuingCa == null && isSelfSigned();
+	}
+
+	/**
+	 * Returns <code>true</code> if the certificate of this CA is signed by its own key. The signature is only
+	 * verified the first time.
+	 */
+	public boolean isSelfSigned() {
+		Boolean result = selfSigned;
+		if (result == null) {
+			result = verifySelfSigned();
+			selfSigned = result;
 		}
+		return result;
+	}
+
+	private boolean verifySelfSigned() {
 		try {
 			certificate.verify(certificate.getPublicKey());
 			return true;
@@ -104,6 +122,20 @@ public class CA implements CertificateChainElement, Serializable {
 		}
 	}
 
+	/**
+	 * Gets the SHA-256 fingerprint of the certificate of this CA
+	 * 
+	 * @return fingerprint as lower case hex
+	 */
+	public String getFingerprint() {
+		String result = fingerprint;
+		if (result == null) {
+			result = X509CertificatePropertyExtrator.getSha256Fingerprint(certificate);
+			fingerprint = result;
+		}
+		return result;
+	}
+
 	/**
 	 * Gets the public key of this CA
 	 * 
@@ -30,9 +30,7 @@ import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
-import java.util.Set;
 
 import org.openoces.ooapi.environment.Environments;
 
@@ -51,12 +49,20 @@ public class ChainVerifier {
 		return false;
 	}
 	
+	/**
+	 * Verifies only that the certificate has been signed by the given CA and that the root of the CA is still
+	 * trusted, for CA chains that have already been verified with <code>verifyTrust</code>.
+	 */
+	static boolean verifyIssuedBy(X509Certificate certificate, CA signingCA) {
+		return verify(certificate, signingCA.getPublicKey()) && verifyRoot(signingCA);
+	}
+
 	private static boolean verifyChain(CA ca, int pathLength) {
 		// Check path length
 		if (ca.getCertificate().getBasicConstraints() < pathLength) {
 			return false;
 		}
-		if (isSelfSigned(ca) && !ca.isRoot()) {
+		if (ca.isSelfSigned() && !ca.isRoot()) {
 			return false;
 		}
 		if (ca.isRoot()) {
@@ -74,19 +80,9 @@ public class ChainVerifier {
 		return false;
 	}
 	
-	private static boolean isSelfSigned(CA ca) {
-		return verify(ca.getCertificate(), ca.getPublicKey());
-	}
-	
 	private static boolean verifyRoot(CA ca) {
 		if (ca.isRoot()) {
-			Set<TrustAnchor> anchors = Environments.getTrustAnchors();
-			for (TrustAnchor trustAnchor : anchors) {
-				if (trustAnchor.getTrustedCert().equals(ca.getCertificate())) {
-					return true;
-				}
-			}
-			return false;
+			return Environments.getTrustAnchorFingerprints().contains(ca.getFingerprint());
 		}
 		return verifyRoot(ca.getSigningCA());
 	}
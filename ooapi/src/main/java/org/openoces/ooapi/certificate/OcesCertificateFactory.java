@@ -62,6 +62,7 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class OcesCertificateFactory {
 	private static final OcesCertificateFactory instance = new OcesCertificateFactory();
+	private final VerifiedChainCache verifiedChains = new VerifiedChainCache();
 
 	private OcesCertificateFactory() {
 	}
@@ -78,7 +79,9 @@ public class OcesCertificateFactory {
 	 * parent relation.
 	 * 
 	 * The factory verifies that each certificate in the certificate chain has
-	 * been signed by its issuing CA.
+	 * been signed by its issuing CA. Chains of issuing CAs that have been
+	 * verified before are reused, so only the signature of the end user
+	 * certificate is verified for those.
 	 * 
 	 * @param certificates
 	 *            List of certificates to create OcesCertificate chain from.
@@ -95,10 +98,21 @@ public class OcesCertificateFactory {
 		certificates = sortCertificatesIssuerLast(certificates);
 		addIssuerCertificateIfNeeded(certificates);
 		validateExactlyOneChainInList(certificates);
+
+		CA verifiedCa = certificates.size() > 1 ? verifiedChains.get(certificates.get(1)) : null;
+		if (verifiedCa != null) {
+			OcesCertificate certificate = selectCertificateSubclass(verifiedCa, certificates.get(0));
+			if (ChainVerifier.verifyIssuedBy(certificate.exportCertificate(), verifiedCa)) {
+				return certificate;
+			}
+			throw new TrustCouldNotBeVerifiedException(certificate, Environments.getTrustedEnvironments());
+		}
+
 		appendRootIfMissing(certificates);
 		CA signingCa = createCaChain(certificates);
 		OcesCertificate certificate = selectCertificateSubclass(signingCa, certificates.get(0));
 		if (ChainVerifier.verifyTrust(certificate)) {
+			verifiedChains.put(signingCa);
 			return certificate;
 		}
 		throw new TrustCouldNotBeVerifiedException(certificate, Environments.getTrustedEnvironments());
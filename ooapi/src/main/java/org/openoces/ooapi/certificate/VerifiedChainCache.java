@@ -0,0 +1,59 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+*/
+package org.openoces.ooapi.certificate;
+
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openoces.ooapi.utils.X509CertificatePropertyExtrator;
+
+/**
+ * Bounded cache of issuing CA chains that have already been verified up to a trusted root, keyed by the SHA-256
+ * fingerprint of the issuing CA certificate.
+ */
+class VerifiedChainCache {
+	private static final int MAX_ENTRIES = 64;
+
+	private final Map<String, CA> chains = new LinkedHashMap<String, CA>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CA> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * @return the verified chain of the issuing CA certificate, or null if it has not been verified yet.
+	 */
+	synchronized CA get(X509Certificate issuingCaCertificate) {
+		return chains.get(X509CertificatePropertyExtrator.getSha256Fingerprint(issuingCaCertificate));
+	}
+
+	synchronized void put(CA issuingCa) {
+		chains.put(issuingCa.getFingerprint(), issuingCa);
+	}
+}
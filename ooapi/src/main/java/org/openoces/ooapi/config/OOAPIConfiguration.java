@@ -111,6 +111,39 @@ public class OOAPIConfiguration {
         
         return httpSocketAndLDAPTimeout;
     }
+    /**
+     * Retrieves the LDAP connect timeout in seconds - if property is not set timeout is set to default value 10
+     * 
+     * @return
+     */
+    public int getLdapConnectTimeout() {
+        String timeoutProperty = getProperty("ldap.connect.timeout");
+
+        return timeoutProperty == null ? 10 : Integer.parseInt(timeoutProperty);
+    }
+
+    /**
+     * Retrieves the maximum number of idle LDAP connections kept per LDAP server - if property is not set it is set to default value 4
+     * 
+     * @return
+     */
+    public int getLdapPoolMaxIdle() {
+        String maxIdleProperty = getProperty("ldap.pool.maxidle");
+
+        return maxIdleProperty == null ? 4 : Integer.parseInt(maxIdleProperty);
+    }
+
+    /**
+     * Retrieves the time in seconds an idle pooled LDAP connection is kept before it is closed - if property is not set it is set to default value 60
+     * 
+     * @return
+     */
+    public int getLdapPoolIdleTimeout() {
+        String timeoutProperty = getProperty("ldap.pool.idle.timeout");
+
+        return timeoutProperty == null ? 60 : Integer.parseInt(timeoutProperty);
+    }
+
     /**
      * Retrieves the timeout for HTTP CRL Cache from property file - if property is not set timeout is set to default value 30
      * 
@@ -135,6 +168,128 @@ public class OOAPIConfiguration {
         return ldapCrlCacheTimeout;
     }
 
+    /**
+     * Retrieves whether CRLs should be refreshed in the background by the CRL prefetcher - if property is not set it is disabled
+     * 
+     * @return
+     */
+    public boolean isCrlPrefetchEnabled() {
+        return Boolean.parseBoolean(getProperty("crl.prefetch.enabled"));
+    }
+
+    /**
+     * Retrieves the interval between CRL prefetch runs in seconds - if property is not set interval is set to default value 30
+     * 
+     * @return
+     */
+    public int getCrlPrefetchInterval() {
+        String intervalProperty = getProperty("crl.prefetch.interval");
+
+        return intervalProperty == null ? 30 : Integer.parseInt(intervalProperty);
+    }
+
+    /**
+     * Retrieves the maximum random delay in seconds added to each CRL prefetch, to avoid downloading all CRLs at the same time
+     * - if property is not set jitter is set to default value 5
+     * 
+     * @return
+     */
+    public int getCrlPrefetchJitter() {
+        String jitterProperty = getProperty("crl.prefetch.jitter");
+
+        return jitterProperty == null ? 5 : Integer.parseInt(jitterProperty);
+    }
+
+    /**
+     * Retrieves the maximum number of concurrent CRL prefetch downloads - if property is not set it is set to default value 2
+     * 
+     * @return
+     */
+    public int getCrlPrefetchThreads() {
+        String threadsProperty = getProperty("crl.prefetch.threads");
+
+        return threadsProperty == null ? 2 : Integer.parseInt(threadsProperty);
+    }
+
+    /**
+     * Retrieves the maximum number of CRLs of a certificate chain that are resolved concurrently - if property is not set it is set to default value 4
+     * 
+     * @return
+     */
+    public int getCrlChainThreads() {
+        String threadsProperty = getProperty("crl.chain.threads");
+
+        return threadsProperty == null ? 4 : Integer.parseInt(threadsProperty);
+    }
+
+    /**
+     * Retrieves how long in seconds a revocation check waits for the CRLs of a certificate chain - if property is not set it is set to default value 60
+     * 
+     * @return
+     */
+    public int getCrlChainTimeout() {
+        String timeoutProperty = getProperty("crl.chain.timeout");
+
+        return timeoutProperty == null ? 60 : Integer.parseInt(timeoutProperty);
+    }
+
+    /**
+     * Retrieves how long in milliseconds a revocation check waits for the OCSP responder before it falls back to the
+     * partitioned CRL - if property is not set it is set to default value 2000
+     * 
+     * @return
+     */
+    public int getOcspTimeout() {
+        String timeoutProperty = getProperty("ocsp.timeout");
+
+        return timeoutProperty == null ? 2000 : Integer.parseInt(timeoutProperty);
+    }
+
+    /**
+     * Retrieves the cache timeout in minutes of OCSP responses without a nextUpdate - if property is not set it is set to default value 1
+     * 
+     * @return
+     */
+    public int getOcspCacheTimeout() {
+        String timeoutProperty = getProperty("ocsp.cache.timeout");
+
+        return timeoutProperty == null ? 1 : Integer.parseInt(timeoutProperty);
+    }
+
+    /**
+     * Retrieves the maximum number of OCSP responses that are cached, the least recently used are dropped first - if property is not set it is set to default value 10000
+     * 
+     * @return
+     */
+    public int getOcspCacheSize() {
+        String sizeProperty = getProperty("ocsp.cache.size");
+
+        return sizeProperty == null ? 10000 : Integer.parseInt(sizeProperty);
+    }
+
+    /**
+     * Retrieves the maximum number of concurrent OCSP requests - if property is not set it is set to default value 4
+     * 
+     * @return
+     */
+    public int getOcspThreads() {
+        String threadsProperty = getProperty("ocsp.threads");
+
+        return threadsProperty == null ? 4 : Integer.parseInt(threadsProperty);
+    }
+
+    /**
+     * Retrieves the directory where downloaded CRLs are persisted, so they can be loaded again after a restart
+     * - if property is not set or empty CRLs are not persisted
+     * 
+     * @return
+     */
+    public String getCrlStoreDirectory() {
+        String directoryProperty = getProperty("crl.store.directory");
+
+        return (directoryProperty == null || directoryProperty.trim().length() == 0) ? null : directoryProperty.trim();
+    }
+
     /**
      * used to overwrite a single property Used during testing to setup scenarios.
      * 
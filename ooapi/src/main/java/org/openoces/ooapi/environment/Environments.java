@@ -26,6 +26,7 @@ package org.openoces.ooapi.environment;
 
 import org.openoces.ooapi.config.OOAPIConfiguration;
 import org.openoces.ooapi.exceptions.InvalidEnvironmentException;
+import org.openoces.ooapi.utils.X509CertificatePropertyExtrator;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -64,6 +65,7 @@ public class Environments {
 
     protected static boolean hasBeenSet = false;
     protected static Set<Environment> trustedEnvironments = new HashSet<Environment>(Arrays.asList(Environment.OCESII_DANID_ENV_PROD));
+    private static volatile TrustAnchorFingerprints trustAnchorFingerprints;
 
     /**
      * Sets the environments that must be supported in this execution context.
@@ -121,6 +123,23 @@ public class Environments {
         return trustAnchors;
     }
 
+    /**
+     * Gets the SHA-256 fingerprints of the root certificates of the CAs that are currently trusted.
+     */
+    public static Set<String> getTrustAnchorFingerprints() {
+        TrustAnchorFingerprints fingerprints = trustAnchorFingerprints;
+        Set<Environment> environments = trustedEnvironments;
+        if (fingerprints == null || fingerprints.environments != environments) {
+            Set<String> values = new HashSet<String>();
+            for (Environment e : environments) {
+                values.add(X509CertificatePropertyExtrator.getSha256Fingerprint(RootCertificates.lookupCertificate(e)));
+            }
+            fingerprints = new TrustAnchorFingerprints(environments, Collections.unmodifiableSet(values));
+            trustAnchorFingerprints = fingerprints;
+        }
+        return fingerprints.values;
+    }
+
     /**
      * Gets <code>Collection</code> of trusted environments. An empty set is
      * returned if no environments are trusted or if the set of trusted
@@ -149,4 +168,15 @@ public class Environments {
         }
         return environments;
     }
+
+    // the fingerprints together with the set of environments they were computed from
+    private static class TrustAnchorFingerprints {
+        private final Set<Environment> environments;
+        private final Set<String> values;
+
+        TrustAnchorFingerprints(Set<Environment> environments, Set<String> values) {
+            this.environments = environments;
+            this.values = values;
+        }
+    }
 }
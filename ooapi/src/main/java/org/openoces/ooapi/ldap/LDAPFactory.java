@@ -24,7 +24,12 @@
  */
 package org.openoces.ooapi.ldap;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
@@ -37,29 +42,86 @@ import org.openoces.ooapi.environment.Environments.Environment;
 import org.openoces.serviceprovider.ServiceProviderException;
 
 public class LDAPFactory {
+    // binary attributes downloaded from the DanID LDAP servers, registered on all pooled connections
+    private static final String[] BINARY_ATTRIBUTES = { "certificateRevocationList;binary", "cACertificate;binary" };
+
+    private static final ConcurrentMap<String, LdapConnectionPool> connectionPools = new ConcurrentHashMap<String, LdapConnectionPool>();
 
     public static DirContext createLdapContext(Environment environment, String... binaryLdapAttributes) {
-        OOAPIConfiguration configuration = OOAPIConfiguration.getInstance();
-        String ldapServerName = configuration.getProperty("ldap.server.danid." + environment);
-        return createLdapContext(ldapServerName, binaryLdapAttributes);
+        return createLdapContext(getLdapServerName(environment), binaryLdapAttributes);
     }
 
     public static InitialDirContext createLdapContext(String ldapServerName, String... binaryLdapAttributes) {
+        try {
+            return new InitialDirContext(createEnvironment(ldapServerName, binaryLdapAttributes));
+        } catch (NamingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets the pool of connections to the LDAP server of the given environment
+     */
+    public static LdapConnectionPool getConnectionPool(Environment environment) {
+        return getConnectionPool(getLdapServerName(environment));
+    }
+
+    /**
+     * Gets the pool of connections to the given LDAP server, creating it on first use
+     */
+    public static LdapConnectionPool getConnectionPool(String ldapServerName) {
+        LdapConnectionPool pool = connectionPools.get(ldapServerName);
+        if (pool == null) {
+            OOAPIConfiguration configuration = OOAPIConfiguration.getInstance();
+            long idleTimeout = TimeUnit.SECONDS.toMillis(configuration.getLdapPoolIdleTimeout());
+
+            LdapConnectionPool newPool = new LdapConnectionPool(ldapServerName, createEnvironment(ldapServerName, BINARY_ATTRIBUTES), configuration.getLdapPoolMaxIdle(), idleTimeout);
+            pool = connectionPools.putIfAbsent(ldapServerName, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Gets all connection pools created so far
+     */
+    public static Collection<LdapConnectionPool> getConnectionPools() {
+        return new ArrayList<LdapConnectionPool>(connectionPools.values());
+    }
+
+    private static String getLdapServerName(Environment environment) {
+        return OOAPIConfiguration.getInstance().getProperty("ldap.server.danid." + environment);
+    }
+
+    private static Hashtable<String, String> createEnvironment(String ldapServerName, String... binaryLdapAttributes) {
+        OOAPIConfiguration configuration = OOAPIConfiguration.getInstance();
+
         Hashtable<String, String> env = new Hashtable<String, String>();
         env.put(Context.PROVIDER_URL, "ldap://" + ldapServerName + "/");
         env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
 
-        int timeout = OOAPIConfiguration.getInstance().getHttpSocketAndLDAPTimeout() * 60 * 1000;// timeout in minutes
-        env.put("com.sun.jndi.ldap.read.timeout", "" + timeout);
+        int readTimeout = configuration.getHttpSocketAndLDAPTimeout() * 60 * 1000;// timeout in minutes
+        env.put("com.sun.jndi.ldap.read.timeout", "" + readTimeout);
 
-        for (int i = 0; i < binaryLdapAttributes.length; i++) {
-            env.put("java.naming.ldap.attributes.binary", binaryLdapAttributes[i]);
-        }
-        try {
-            return new InitialDirContext(env);
-        } catch (NamingException e) {
-            throw new IllegalStateException(e);
+        int connectTimeout = configuration.getLdapConnectTimeout() * 1000;// timeout in seconds
+        env.put("com.sun.jndi.ldap.connect.timeout", "" + connectTimeout);
+
+        // the property takes a space separated list of attribute names
+        if (binaryLdapAttributes.length > 0) {
+            StringBuilder binaryAttributes = new StringBuilder();
+            for (String binaryLdapAttribute : binaryLdapAttributes) {
+                if (binaryAttributes.length() > 0) {
+                    binaryAttributes.append(' ');
+                }
+                binaryAttributes.append(binaryLdapAttribute);
+            }
+            env.put("java.naming.ldap.attributes.binary", binaryAttributes.toString());
         }
+
+        return env;
     }
 
     public static String getLdapHostNamefromCaDN(String caDN) {
@@ -0,0 +1,220 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.ldap;
+
+import java.util.Hashtable;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of LDAP connections to a single LDAP server. Connections are reused between requests, and are discarded
+ * when they have been idle for longer than the idle timeout or when they fail with a communication error.
+ */
+@Slf4j
+public class LdapConnectionPool {
+    private final String ldapServerName;
+    private final Hashtable<String, String> env;
+    private final int maxIdle;
+    private final long idleTimeout;
+    private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param ldapServerName
+     *            - host (and optional port) of the LDAP server
+     * @param env
+     *            - the JNDI environment used when creating new connections
+     * @param maxIdle
+     *            - the maximum number of idle connections kept in the pool
+     * @param idleTimeout
+     *            - the time in milliseconds an idle connection is kept before it is discarded
+     */
+    LdapConnectionPool(String ldapServerName, Hashtable<String, String> env, int maxIdle, long idleTimeout) {
+        this.ldapServerName = ldapServerName;
+        this.env = env;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Executes the callback with a pooled connection. If the connection turns out to be broken, the callback is retried once on a new connection.
+     */
+    public <T> T execute(LdapCallback<T> callback) {
+        try {
+            try {
+                return executeOnce(callback, true);
+            } catch (CommunicationException | ServiceUnavailableException e) {
+                log.debug("Pooled LDAP connection to " + ldapServerName + " failed, retrying on a new connection", e);
+
+                return executeOnce(callback, false);
+            }
+        } catch (NamingException e) {
+            failures.incrementAndGet();
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private <T> T executeOnce(LdapCallback<T> callback, boolean allowReuse) throws NamingException {
+        PooledConnection connection = allowReuse ? borrow() : create();
+        active.incrementAndGet();
+
+        boolean broken = false;
+        try {
+            return callback.doInLdap(connection.context);
+        } catch (CommunicationException | ServiceUnavailableException e) {
+            // only connection errors discard the connection, other errors are caused by the request (e.g. entry not found)
+            broken = true;
+
+            throw e;
+        } finally {
+            active.decrementAndGet();
+
+            if (broken) {
+                discard(connection);
+            } else {
+                release(connection);
+            }
+        }
+    }
+
+    private PooledConnection borrow() throws NamingException {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            if (System.currentTimeMillis() - connection.lastUsed > idleTimeout) {
+                discard(connection);
+                continue;
+            }
+
+            reused.incrementAndGet();
+            return connection;
+        }
+
+        return create();
+    }
+
+    private PooledConnection create() throws NamingException {
+        PooledConnection connection = new PooledConnection(new InitialDirContext(env));
+        created.incrementAndGet();
+
+        return connection;
+    }
+
+    private void release(PooledConnection connection) {
+        connection.lastUsed = System.currentTimeMillis();
+
+        if (idleConnections.size() >= maxIdle || !idleConnections.offerFirst(connection)) {
+            discard(connection);
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        discarded.incrementAndGet();
+
+        try {
+            connection.context.close();
+        } catch (NamingException e) {
+            log.debug("Failed to close LDAP connection to " + ldapServerName, e);
+        }
+    }
+
+    public String getLdapServerName() {
+        return ldapServerName;
+    }
+
+    /**
+     * Gets the number of connections currently in use
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Gets the number of connections currently idle in the pool
+     */
+    public int getIdle() {
+        return idleConnections.size();
+    }
+
+    /**
+     * Gets the total number of connections opened by this pool
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * Gets the total number of times an idle connection was reused instead of opening a new one
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Gets the total number of connections closed by this pool, because they were broken, expired or not needed
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * Gets the total number of LDAP operations that failed
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Operation executed on a pooled LDAP connection
+     */
+    public interface LdapCallback<T> {
+        T doInLdap(DirContext ctx) throws NamingException;
+    }
+
+    private static class PooledConnection {
+        private final DirContext context;
+        private volatile long lastUsed;
+
+        PooledConnection(DirContext context) {
+            this.context = context;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.signatures;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xml.security.utils.IgnoreAllErrorHandler;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Thread confined, reused <code>DocumentBuilder</code>s for the signature documents, and a streaming reader for the
+ * signed contents where only the root element is needed. External entities and DOCTYPE declarations are not allowed.
+ */
+final class DocumentBuilders {
+    private static final DocumentBuilderFactory dbf = createFactory();
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+
+        @Override
+        protected DocumentBuilder initialValue() {
+            try {
+                synchronized (dbf) {
+                    DocumentBuilder db = dbf.newDocumentBuilder();
+                    db.setErrorHandler(new IgnoreAllErrorHandler());
+                    return db;
+                }
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private DocumentBuilders() {
+    }
+
+    static Document parse(byte[] bs) throws SAXException, IOException {
+        DocumentBuilder db = builders.get();
+        try {
+            return db.parse(new ByteArrayInputStream(bs));
+        } finally {
+            db.reset();
+            db.setErrorHandler(new IgnoreAllErrorHandler());
+        }
+    }
+
+    /**
+     * @return the Id attribute of the root element of the document, or null if it has none
+     * @throws IllegalArgumentException if the document cannot be read up to the root element
+     */
+    static String readRootId(byte[] bs) {
+        XMLStreamReader reader = null;
+        try {
+            reader = inputFactory.createXMLStreamReader(new ByteArrayInputStream(bs));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    return reader.getAttributeValue(null, "Id");
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Cannot parse signed content", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Ignore in silence
+                }
+            }
+        }
+    }
+
+    private static DocumentBuilderFactory createFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setExpandEntityReferences(false);
+        factory.setXIncludeAware(false);
+        try {
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false); //ignore external entity include;
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);   //disallow usage of DOCTYPE
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        return factory;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+}
@@ -45,4 +45,8 @@ public class OpenlogonSignature extends OpensignAbstractSignature {
     protected OpenlogonSignature(Document doc) throws TransformerException, XMLSecurityException, XPathExpressionException {
         super(doc);
     }
+
+    protected OpenlogonSignature(OpensignAbstractSignature parsed) {
+        super(parsed);
+    }
 }
@@ -34,29 +34,25 @@ import org.apache.xml.security.exceptions.XMLSecurityException;
 import org.apache.xml.security.signature.XMLSignature;
 import org.apache.xml.security.signature.XMLSignatureException;
 import org.apache.xml.security.utils.Base64;
-import org.apache.xml.security.utils.IgnoreAllErrorHandler;
-import org.apache.xml.security.utils.XMLUtils;
+import org.apache.xml.security.utils.Constants;
 import org.openoces.ooapi.certificate.OcesCertificate;
 import org.openoces.ooapi.certificate.OcesCertificateFactory;
 import org.openoces.ooapi.exceptions.InternalException;
 import org.openoces.ooapi.exceptions.TrustCouldNotBeVerifiedException;
-import org.openoces.ooapi.utils.SimpleNamspaceContext;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.xpath.*;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -73,25 +69,29 @@ public abstract class OpensignAbstractSignature {
 	protected final static String NAMESPACEURI_OPENOCES_R2 = "http://www.openoces.org/2006/07/signature#";
 
 	protected Document doc = null;
-    protected Element nscontext;
     protected Element sigElement = null;
     protected XMLSignature signature;    
-    protected XPath xpath;
+    private volatile Map<String, SignatureProperty> signatureProperties;
 
     protected OpensignAbstractSignature(Document doc) throws TransformerException, XMLSignatureException, XMLSecurityException, XPathExpressionException {
         this.doc = doc;
-        nscontext = XMLUtils.createDSctx(doc, "ds", org.apache.xml.security.utils.Constants.SignatureSpecNS);
-        XPathFactory factory = XPathFactory.newInstance();
-        
-        xpath = factory.newXPath();
-        xpath.setNamespaceContext(new SimpleNamspaceContext());
-        
-        XPathExpression expr = xpath.compile("//ds:Signature[1]");
-        sigElement = (Element) expr.evaluate(doc, XPathConstants.NODE);
+
+        // the first signature in document order, as selected by //ds:Signature[1]
+        sigElement = (Element) doc.getElementsByTagNameNS(Constants.SignatureSpecNS, Constants._TAG_SIGNATURE).item(0);
 
         signature = new XMLSignature(sigElement, null);
     }
 
+    /**
+     * Reuses the document and the parsed signature of another signature object of the same document
+     */
+    protected OpensignAbstractSignature(OpensignAbstractSignature parsed) {
+        this.doc = parsed.doc;
+        this.sigElement = parsed.sigElement;
+        this.signature = parsed.signature;
+        this.signatureProperties = parsed.signatureProperties;
+    }
+
     public OcesCertificate getSigningCertificate() throws InternalException {
         try {
         	List<X509Certificate> certificates = new ArrayList<X509Certificate>();
@@ -122,7 +122,20 @@ public abstract class OpensignAbstractSignature {
         }
     }
 
+    /**
+     * Gives the signature properties. They are extracted from the document the first time and the same, unmodifiable
+     * map is returned afterwards.
+     */
     public Map<String, SignatureProperty> getSignatureProperties() throws InternalException {
+        Map<String, SignatureProperty> properties = signatureProperties;
+        if (properties == null) {
+            properties = Collections.unmodifiableMap(extractSignatureProperties());
+            signatureProperties = properties;
+        }
+        return properties;
+    }
+
+    private Map<String, SignatureProperty> extractSignatureProperties() throws InternalException {
         try {
             String namespace = doc.getFirstChild().getNamespaceURI();
             if (namespace.equals(NAMESPACEURI_OPENOCES_R1)) {
@@ -145,14 +158,18 @@ public abstract class OpensignAbstractSignature {
     	}
 
     	try {
-            XPathExpression expr = xpath.compile("//ds:SignatureProperties/ds:SignatureProperty");
-            NodeList nodes = (NodeList)expr.evaluate(doc, XPathConstants.NODESET);
-            properties = extractPropertiesFromNodes(nodes, "Name", "Value");
+    		// //ds:SignatureProperties/ds:SignatureProperty
+    		List<Element> nodes = new ArrayList<Element>();
+    		for (Element node : getSignaturePropertyElements()) {
+    			Node parent = node.getParentNode();
+    			if (Constants.SignatureSpecNS.equals(parent.getNamespaceURI()) && "SignatureProperties".equals(parent.getLocalName())) {
+    				nodes.add(node);
+    			}
+    		}
+            properties = extractPropertiesFromNodes(nodes, null);
     		return properties;
     	} catch (IOException e) {
     		throw new InternalException(e);
-		} catch (TransformerException e) {
-			throw new InternalException(e);
 		} catch (Base64DecodingException e) {
 			throw new InternalException(e);
 		}
@@ -163,14 +180,11 @@ public abstract class OpensignAbstractSignature {
     	Map<String, SignatureProperty> properties = new HashMap<String, SignatureProperty>();
         for (int i = 0; i < signature.getSignedInfo().getSignedContentLength(); i++) {
             byte[] bs = signature.getSignedInfo().getSignedContentItem(i);
-            Document contents = getDocument(bs);
 
-            if ("ToBeSigned".equals(contents.getFirstChild().getAttributes().getNamedItem("Id").getNodeValue()))
+            // only the Id of the root element is needed, so the signed content is not parsed into a DOM
+            if ("ToBeSigned".equals(DocumentBuilders.readRootId(bs)))
             {
-            	XPathExpression expr = xpath.compile("//ds:SignatureProperty");
-                NodeList nodes = (NodeList)expr.evaluate(doc, XPathConstants.NODESET);
-
-                properties.putAll(extractPropertiesFromNodes(nodes, "openoces:Name", "openoces:Value"));
+                properties.putAll(extractPropertiesFromNodes(getSignaturePropertyElements(), NAMESPACEURI_OPENOCES_R2));
             }
         }
         return properties;
@@ -180,29 +194,38 @@ public abstract class OpensignAbstractSignature {
     }
 
 	protected static Document getDocument(byte[] bs) throws ParserConfigurationException, IOException, SAXException {
-	    org.apache.xml.security.Init.init();
-	    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-	    dbf.setNamespaceAware(true);
+	    return DocumentBuilders.parse(bs);
+	}
 
-        dbf.setFeature("http://xml.org/sax/features/external-general-entities", false);
-        dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+	// all ds:SignatureProperty elements in document order, as selected by //ds:SignatureProperty
+	private List<Element> getSignaturePropertyElements() {
+		NodeList nodes = doc.getElementsByTagNameNS(Constants.SignatureSpecNS, "SignatureProperty");
+		List<Element> elements = new ArrayList<Element>(nodes.getLength());
+		for (int i = 0; i < nodes.getLength(); i++) {
+			elements.add((Element) nodes.item(i));
+		}
+		return elements;
+	}
 
-	    DocumentBuilder db = dbf.newDocumentBuilder();
-	    db.setErrorHandler(new IgnoreAllErrorHandler());
-	    return db.parse(new ByteArrayInputStream(bs));
+	// the first child element with the namespace (null for none) and local name, as selected by a relative XPath name test
+	private static Element getChildElement(Element parent, String namespace, String localName) {
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE && localName.equals(child.getLocalName())
+					&& (namespace == null ? child.getNamespaceURI() == null : namespace.equals(child.getNamespaceURI()))) {
+				return (Element) child;
+			}
+		}
+		return null;
 	}
 
-	private Map<String, SignatureProperty> extractPropertiesFromNodes(NodeList nodes, String nameIdentifier, String valueIdentifier)
-			throws TransformerException, UnsupportedEncodingException, Base64DecodingException, XPathExpressionException {
+	private Map<String, SignatureProperty> extractPropertiesFromNodes(List<Element> nodes, String namespace)
+			throws UnsupportedEncodingException, Base64DecodingException {
 		Map<String, SignatureProperty> properties = new HashMap<String, SignatureProperty>();
-		for (int i = 0; i < nodes.getLength(); i++) {
-		    Node n = nodes.item(i);
+		for (Element n : nodes) {
 		    Node nameNode, valueNode;
 		    
-		    XPathExpression nameExpr = xpath.compile(nameIdentifier);
-	    	nameNode = (Element) nameExpr.evaluate(n, XPathConstants.NODE);
-	    	XPathExpression valueExpr = xpath.compile(valueIdentifier);
-	    	valueNode = (Element) valueExpr.evaluate(n, XPathConstants.NODE);
+	    	nameNode = getChildElement(n, namespace, "Name");
+	    	valueNode = getChildElement(n, namespace, "Value");
 
 		    String name = nameNode.getFirstChild().getNodeValue();
 
@@ -29,17 +29,11 @@
 
 package org.openoces.ooapi.signatures;
 
-import org.apache.xml.security.utils.IgnoreAllErrorHandler;
 import org.openoces.ooapi.exceptions.InternalException;
 import org.openoces.ooapi.exceptions.NonOpensignSignatureException;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
-
 /**
  * This is a singleton class used to construct objects representing xmldsig signature generated by OpenSign. Use this
  * class to instantiate high-level {@link OpensignSignature} objects from a raw xmldsig document generated by
@@ -49,7 +43,6 @@ import java.io.ByteArrayInputStream;
  */
 public class OpensignSignatureFactory {
 	private static OpensignSignatureFactory ourInstance = new OpensignSignatureFactory();
-    private DocumentBuilderFactory dbf = null;
 
     public static OpensignSignatureFactory getInstance() throws InternalException {
         return ourInstance;
@@ -57,26 +50,6 @@ public class OpensignSignatureFactory {
 
     private OpensignSignatureFactory() {
     	org.apache.xml.security.Init.init();
-    	dbf = DocumentBuilderFactory.newInstance();
-    	dbf.setNamespaceAware(true);
-    	dbf.setExpandEntityReferences(false);
-    	dbf.setXIncludeAware(false);
-        try {
-            dbf.setFeature("http://xml.org/sax/features/external-general-entities", false); //ignore external entity include;
-            dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);   //disallow usage of DOCTYPE
-    	} catch (ParserConfigurationException e) {
-    		throw new IllegalStateException(e);
-    	}
-    }
-
-    private DocumentBuilder createDocumentBuilder() {
-        try {
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            db.setErrorHandler(new IgnoreAllErrorHandler());
-            return db;
-        } catch (ParserConfigurationException e) {
-            throw new IllegalStateException(e);
-        }
     }
 
     public OpensignAbstractSignature generateOpensignSignature(String xmlDoc) throws NonOpensignSignatureException, InternalException {
@@ -87,11 +60,12 @@ public class OpensignSignatureFactory {
         	throw new Oces2ErrorCode(xmlDoc);
         }
 		try {
-			Document doc = createDocumentBuilder().parse(new ByteArrayInputStream(xmlDoc.getBytes("UTF-8")));
+			Document doc = DocumentBuilders.parse(xmlDoc.getBytes("UTF-8"));
 			OpensignSignature signature = new OpensignSignature(doc);
 			SignatureProperty actionProperty = signature.getSignatureProperties().get("action");
 			if (actionProperty != null && ("bG9nb24=".equals(actionProperty.getValue()) || "logon".equalsIgnoreCase(actionProperty.getValue()))) {
-				return new OpenlogonSignature(doc);
+				// the document and signature are already parsed, so they are handed over instead of parsed again
+				return new OpenlogonSignature(signature);
 			}
 			return signature;
 		} catch (SAXException e) {
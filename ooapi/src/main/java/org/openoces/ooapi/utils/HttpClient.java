@@ -40,8 +40,17 @@ import lombok.extern.slf4j.Slf4j;
 public class HttpClient {
 
     public static byte[] doPostOCSPRequest(byte[] bs, String responderURL) throws InternalException {
+        return doPostOCSPRequest(bs, responderURL, 0);
+    }
+
+    /**
+     * Posts an OCSP request to the responder and returns the encoded response.
+     * 
+     * @param timeout connect and read timeout in milliseconds, 0 means no timeout
+     */
+    public static byte[] doPostOCSPRequest(byte[] bs, String responderURL, int timeout) throws InternalException {
         try {
-            HttpURLConnection conn = postRequest(bs, responderURL);
+            HttpURLConnection conn = postRequest(bs, responderURL, timeout);
 
             if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
                 log.warn("http response code from OCSP request was: " + conn.getResponseCode());
@@ -84,8 +93,8 @@ public class HttpClient {
         }
     }
 
-    private static HttpURLConnection postRequest(byte[] bs, String responderURL) throws IOException {
-        HttpURLConnection conn = setupHttpConnectionForPost(bs.length, responderURL);
+    private static HttpURLConnection postRequest(byte[] bs, String responderURL, int timeout) throws IOException {
+        HttpURLConnection conn = setupHttpConnectionForPost(bs.length, responderURL, timeout);
         OutputStream os = null;
         try {
             os = conn.getOutputStream();
@@ -122,9 +131,11 @@ public class HttpClient {
         }
     }
 
-    private static HttpURLConnection setupHttpConnectionForPost(int contentLength, String responderURL) throws IOException {
+    private static HttpURLConnection setupHttpConnectionForPost(int contentLength, String responderURL, int timeout) throws IOException {
         HttpURLConnection conn;
         conn = (HttpURLConnection) new URL(responderURL).openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
         conn.setAllowUserInteraction(false);
         conn.setDoInput(true);
         conn.setDoOutput(true);
@@ -33,6 +33,7 @@ import java.util.Collection;
 import java.util.Hashtable;
 import java.util.List;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.bouncycastle.asn1.*;
 import org.bouncycastle.asn1.x509.*;
 import org.openoces.ooapi.ObjectIdentifiers;
@@ -194,6 +195,16 @@ public class X509CertificatePropertyExtrator {
 		return caIssuerUrl;
     }
 
+    /**
+     * Gets the SHA-256 fingerprint of the certificate as lower case hex
+     */
+    public static String getSha256Fingerprint(X509Certificate certificate) {
+        try {
+            return DigestUtils.sha256Hex(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
 
     private static String getAccessDescriptionUrlForOid(ASN1ObjectIdentifier oid, AccessDescription[] authorityInformationAccessArray) {
         for (int i = 0; i < authorityInformationAccessArray.length; i++) {
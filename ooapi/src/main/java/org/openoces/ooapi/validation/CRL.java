@@ -24,6 +24,8 @@
 */
 package org.openoces.ooapi.validation;
 
+import java.io.IOException;
+import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -31,16 +33,24 @@ import java.security.Principal;
 import java.security.PublicKey;
 import java.security.SignatureException;
 import java.security.cert.CRLException;
+import java.security.cert.CRLReason;
 import java.security.cert.X509CRL;
 import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
 import javax.security.auth.x500.X500Principal;
 
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
 import org.openoces.ooapi.TimeService;
 import org.openoces.ooapi.certificate.CA;
 import org.openoces.ooapi.certificate.OcesCertificateFacade;
@@ -52,17 +62,190 @@ import org.openoces.ooapi.exceptions.InvalidSignatureException;
 
 /**
  * Models a Certificate Revocation List (CRL). Encapsulates an <code>X509CRL</code> CRL 
+ * 
+ * The serial numbers of the revoked certificates are indexed into sorted arrays when the CRL is constructed, and the
+ * signature of the CRL is only verified the first time it is checked against a given issuer key.
  */
 public class CRL {
 	private X509CRL crl;
+	private X509CRL deltaCrl;
   private static final String PARTIAL_DISTRIBUTION_POINT_OID = "2.5.29.28";
+  private static final String CRL_NUMBER_OID = "2.5.29.20";
+  private static final String DELTA_CRL_INDICATOR_OID = "2.5.29.27";
   private TimeService timeservice = new CurrentTimeTimeService();
+
+	// revoked serial numbers that fit in a long, and the (rare) ones that do not - both sorted for binary search
+	private final long[] revokedSerials;
+	private final BigInteger[] revokedLargeSerials;
+
+	// the issuer key this CRL has been successfully verified with
+	private volatile PublicKey verifiedKey;
+
   /**
 	 * Constructs CRL
 	 * @param crl to encapsulate
 	 */
 	public CRL(X509CRL crl) {
+		this(crl, null);
+	}
+
+	private CRL(X509CRL crl, X509CRL deltaCrl) {
 		this.crl = crl;
+		this.deltaCrl = deltaCrl;
+
+		Set<BigInteger> serials = new HashSet<BigInteger>();
+		addRevokedSerials(crl, serials);
+		if (deltaCrl != null) {
+			addRevokedSerials(deltaCrl, serials);
+		}
+
+		revokedSerials = toSortedLongs(serials);
+		revokedLargeSerials = toSortedBigIntegers(serials);
+	}
+
+	// merges the delta CRL into the index of the base CRL, without going through the entries of the base CRL again
+	private CRL(CRL base, X509CRL deltaCrl) {
+		this.crl = base.crl;
+		this.deltaCrl = deltaCrl;
+
+		Set<BigInteger> added = new HashSet<BigInteger>();
+		Set<BigInteger> removed = new HashSet<BigInteger>();
+		Set<? extends X509CRLEntry> revokedCertificates = deltaCrl.getRevokedCertificates();
+		if (revokedCertificates != null) {
+			for (X509CRLEntry crlEntry : revokedCertificates) {
+				if (crlEntry.getCertificateIssuer() != null && !crlEntry.getCertificateIssuer().equals(deltaCrl.getIssuerX500Principal())) {
+					continue;
+				}
+
+				if (crlEntry.getRevocationReason() == CRLReason.REMOVE_FROM_CRL) {
+					removed.add(crlEntry.getSerialNumber());
+				} else {
+					added.add(crlEntry.getSerialNumber());
+				}
+			}
+		}
+
+		revokedSerials = merge(base.revokedSerials, toSortedLongs(added), toSortedLongs(removed));
+
+		Set<BigInteger> largeSerials = new TreeSet<BigInteger>(Arrays.asList(base.revokedLargeSerials));
+		largeSerials.addAll(Arrays.asList(toSortedBigIntegers(added)));
+		largeSerials.removeAll(removed);
+		revokedLargeSerials = largeSerials.toArray(new BigInteger[largeSerials.size()]);
+	}
+
+	// the serial numbers that fit in a long, sorted
+	private static long[] toSortedLongs(Set<BigInteger> serials) {
+		long[] result = new long[serials.size()];
+		int count = 0;
+		for (BigInteger serial : serials) {
+			if (serial.bitLength() < 64) {
+				result[count++] = serial.longValue();
+			}
+		}
+
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	// the serial numbers that do not fit in a long, sorted
+	private static BigInteger[] toSortedBigIntegers(Set<BigInteger> serials) {
+		List<BigInteger> result = new ArrayList<BigInteger>();
+		for (BigInteger serial : serials) {
+			if (serial.bitLength() >= 64) {
+				result.add(serial);
+			}
+		}
+
+		BigInteger[] sorted = result.toArray(new BigInteger[result.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	// the union of the sorted base and added serials, without the removed serials, in one pass over the base serials
+	private static long[] merge(long[] base, long[] added, long[] removed) {
+		long[] result = new long[base.length + added.length];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < base.length || j < added.length) {
+			long next;
+			if (j == added.length || (i < base.length && base[i] <= added[j])) {
+				next = base[i++];
+				if (j < added.length && added[j] == next) {
+					j++;
+				}
+			} else {
+				next = added[j++];
+			}
+
+			if (Arrays.binarySearch(removed, next) < 0) {
+				result[count++] = next;
+			}
+		}
+
+		return Arrays.copyOf(result, count);
+	}
+
+	private static void addRevokedSerials(X509CRL source, Set<BigInteger> serials) {
+		Set<? extends X509CRLEntry> revokedCertificates = source.getRevokedCertificates();
+		if (revokedCertificates == null) {
+			return;
+		}
+
+		for (X509CRLEntry crlEntry : revokedCertificates) {
+			// entries of indirect CRLs can belong to another issuer, and can never match a certificate issued by the CRL issuer
+			if (crlEntry.getCertificateIssuer() != null && !crlEntry.getCertificateIssuer().equals(source.getIssuerX500Principal())) {
+				continue;
+			}
+
+			// a delta CRL can release a certificate on hold again
+			if (crlEntry.getRevocationReason() == CRLReason.REMOVE_FROM_CRL) {
+				serials.remove(crlEntry.getSerialNumber());
+			} else {
+				serials.add(crlEntry.getSerialNumber());
+			}
+		}
+	}
+
+	/**
+	 * Returns a CRL with the revocations of the given delta CRL merged into this (base) CRL. The merged CRL is valid
+	 * in the period where both this CRL and the delta CRL are valid. If this CRL has no delta CRL merged into it,
+	 * the revoked serial numbers already indexed for it are reused, so only the entries of the delta CRL are read.
+	 * 
+	 * @param deltaCrl delta CRL issued by the same CA, based on this CRL or an older base CRL
+	 * @throws IllegalArgumentException if the given CRL is not a delta CRL that can be applied to this CRL
+	 */
+	public CRL withDelta(X509CRL deltaCrl) {
+		BigInteger baseCrlNumber = getExtensionInteger(deltaCrl, DELTA_CRL_INDICATOR_OID);
+		if (baseCrlNumber == null) {
+			throw new IllegalArgumentException("CRL is not a delta CRL");
+		}
+
+		if (!deltaCrl.getIssuerX500Principal().equals(crl.getIssuerX500Principal())) {
+			throw new IllegalArgumentException("Delta CRL is issued by " + deltaCrl.getIssuerX500Principal() + ", base CRL is issued by " + crl.getIssuerX500Principal());
+		}
+
+		BigInteger crlNumber = getExtensionInteger(crl, CRL_NUMBER_OID);
+		if (crlNumber == null || crlNumber.compareTo(baseCrlNumber) < 0) {
+			throw new IllegalArgumentException("Delta CRL requires base CRL number " + baseCrlNumber + ", base CRL has number " + crlNumber);
+		}
+
+		return (this.deltaCrl == null) ? new CRL(this, deltaCrl) : new CRL(crl, deltaCrl);
+	}
+
+	private static BigInteger getExtensionInteger(X509CRL crl, String oid) {
+		byte[] extensionValue = crl.getExtensionValue(oid);
+		if (extensionValue == null) {
+			return null;
+		}
+
+		try {
+			ASN1OctetString octets = ASN1OctetString.getInstance(extensionValue);
+			return ASN1Integer.getInstance(ASN1Primitive.fromByteArray(octets.getOctets())).getValue();
+		} catch (IOException e) {
+			throw new IllegalStateException("Invalid extension " + oid + " in CRL", e);
+		}
 	}
 
 	/**
@@ -116,8 +299,16 @@ public class CRL {
     }
 
     private void verifyCrl(PublicKey publicKey) throws SignatureException {
+        if (publicKey.equals(verifiedKey)) {
+            return;
+        }
+
         try {
             crl.verify(publicKey);
+            if (deltaCrl != null) {
+                deltaCrl.verify(publicKey);
+            }
+            verifiedKey = publicKey;
         } catch (CRLException e) {
             throw new RuntimeException(e);
         } catch (NoSuchAlgorithmException e) {
@@ -133,7 +324,15 @@ public class CRL {
         assertCrlCurrentlyValid();
         assertCrlIssuedByCertificateIssuer(certificate);
 
-		return crl.isRevoked(certificate);
+		return isSerialRevoked(certificate.getSerialNumber());
+    }
+
+    private boolean isSerialRevoked(BigInteger serial) {
+        if (serial.bitLength() < 64) {
+            return Arrays.binarySearch(revokedSerials, serial.longValue()) >= 0;
+        }
+
+        return Arrays.binarySearch(revokedLargeSerials, serial) >= 0;
     }
 
     private void assertCrlIssuedByCertificateIssuer(X509Certificate certificate) {
@@ -145,7 +344,16 @@ public class CRL {
     }
 
     public X509CRLEntry getRevocationDetails(OcesCertificateFacade certificate) {
-        return crl.getRevokedCertificate(certificate.exportCertificate());
+        X509Certificate x509Certificate = certificate.exportCertificate();
+
+        if (deltaCrl != null) {
+            X509CRLEntry deltaEntry = deltaCrl.getRevokedCertificate(x509Certificate);
+            if (deltaEntry != null) {
+                return (deltaEntry.getRevocationReason() == CRLReason.REMOVE_FROM_CRL) ? null : deltaEntry;
+            }
+        }
+
+        return crl.getRevokedCertificate(x509Certificate);
     }
 
 	public boolean isValid() {
@@ -170,18 +378,21 @@ public class CRL {
     }
 
     private void assertCrlNotBeforeValidity() {
-		if (timeservice.getTime().before(crl.getThisUpdate())) {
-			throw new CrlNotYetValidException("CRL is not yet valid, crl is valid from " + crl.getThisUpdate());
+		if (timeservice.getTime().before(getValidFrom())) {
+			throw new CrlNotYetValidException("CRL is not yet valid, crl is valid from " + getValidFrom());
 		}
     }
 
     private void assertCrlNotExpired() {
-        if (timeservice.getTime().after(crl.getNextUpdate())) {
-            throw new CrlExpiredException("CRL is expired, crl is valid to " + crl.getNextUpdate());
+        if (timeservice.getTime().after(getValidUntil())) {
+            throw new CrlExpiredException("CRL is expired, crl is valid to " + getValidUntil());
         }
 	}
 	
 	public Date getValidFrom() {
+		if (deltaCrl != null && deltaCrl.getThisUpdate().after(crl.getThisUpdate())) {
+			return deltaCrl.getThisUpdate();
+		}
 		return crl.getThisUpdate();
 	}
 
@@ -196,22 +407,43 @@ public class CRL {
 
     public Set<X509CRLEntry> getRevocationDetails(Date from) {
         Set<X509CRLEntry> filteredRevokedCertificates = new TreeSet<X509CRLEntry>();
-        final Set<? extends X509CRLEntry> revokedCertificates = crl.getRevokedCertificates();
+        addRevocationDetails(crl, from, filteredRevokedCertificates);
+        if (deltaCrl != null) {
+            addRevocationDetails(deltaCrl, from, filteredRevokedCertificates);
+        }
+        return filteredRevokedCertificates;
+    }
+
+    private void addRevocationDetails(X509CRL source, Date from, Set<X509CRLEntry> filteredRevokedCertificates) {
+        final Set<? extends X509CRLEntry> revokedCertificates = source.getRevokedCertificates();
         if (revokedCertificates != null) {
             for (X509CRLEntry crlEntry : revokedCertificates) {
                 Date revocationDate = crlEntry.getRevocationDate();
-                if (!revocationDate.before(from)) {
+                if (!revocationDate.before(from) && isSerialRevoked(crlEntry.getSerialNumber())) {
                     filteredRevokedCertificates.add(crlEntry);
                 }
             }
         }
-        return filteredRevokedCertificates;
     }
 
 	public Date getValidUntil() {
+		if (deltaCrl != null && deltaCrl.getNextUpdate().before(crl.getNextUpdate())) {
+			return deltaCrl.getNextUpdate();
+		}
 		return crl.getNextUpdate();
 	}
 
+	/**
+	 * Gets the DER encoding of this CRL (without any merged delta CRL)
+	 */
+	public byte[] getEncoded() {
+		try {
+			return crl.getEncoded();
+		} catch (CRLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public boolean isPartial() {
 		return crl.getExtensionValue(PARTIAL_DISTRIBUTION_POINT_OID) != null;
 	}
@@ -246,7 +478,7 @@ public class CRL {
     @Override
     public String toString() {
         if (crl != null) {
-            return "CRL, validFrom: " +  getValidFrom() + ", validUntil: " + getValidUntil() + ", isPartial: " + isPartial();
+            return "CRL, validFrom: " +  getValidFrom() + ", validUntil: " + getValidUntil() + ", isPartial: " + isPartial() + ", hasDelta: " + (deltaCrl != null);
         } else {
             return "CRL (null)";
         }
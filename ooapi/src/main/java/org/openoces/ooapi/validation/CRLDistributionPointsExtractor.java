@@ -27,6 +27,7 @@ package org.openoces.ooapi.validation;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
 
@@ -53,6 +54,27 @@ public class CRLDistributionPointsExtractor {
         return new CRLDistributionPoints(fullCrlDistributionPoint, partitionedCRLDistributionPoint);
     }
 
+    /**
+     * Extracts the location of the delta CRL (the freshest CRL extension) out of a CRL
+     * @param crl
+     * @return the URL of the delta CRL or null if the CRL does not point to a delta CRL
+     */
+    public static String extractFreshestCrlDistributionPoint(X509CRL crl) {
+        byte[] extensionValue = crl.getExtensionValue(Extension.freshestCRL.getId());
+        if (extensionValue == null) {
+            return null;
+        }
+
+        try {
+            ASN1OctetString asOctetString = ASN1OctetString.getInstance(extensionValue);
+            CRLDistPoint freshestCrl = CRLDistPoint.getInstance(ASN1Primitive.fromByteArray(asOctetString.getOctets()));
+
+            return extractFullCrlDistributionPoint(freshestCrl);
+        } catch (IOException e) {
+            throw new IllegalStateException("IO error while extracting freshest CRL distribution point", e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private static CRLDistPoint extractCrlDistributionPointsExtension(X509Certificate certificate) {
         Extensions extensions = extractExtensions(certificate);
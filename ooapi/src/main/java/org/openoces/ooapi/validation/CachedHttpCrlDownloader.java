@@ -0,0 +1,119 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.builder.ToStringBuilder;
+import org.apache.commons.lang.builder.ToStringStyle;
+import org.openoces.ooapi.config.OOAPIConfiguration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Downloads CRLs over HTTP through a <code>CrlCache</code>. Refreshes are conditional requests, and if the CRL
+ * points to a delta CRL (freshest CRL extension), the delta CRL is downloaded as well and merged into the CRL.
+ */
+@Slf4j
+public class CachedHttpCrlDownloader {
+    private HttpCrlDownloader downloader = new HttpCrlDownloader();
+    private CrlCache crlCache;
+
+    // the jobs hold the validators of the previous download of each location, so they are reused between refreshes
+    private final ConcurrentMap<String, HttpDownloadableJob> jobs = new ConcurrentHashMap<String, HttpDownloadableJob>();
+
+    public CachedHttpCrlDownloader() {
+        this.crlCache = new CrlCache(OOAPIConfiguration.getInstance().getHttpCrlCacheTimeout());
+    }
+
+    public CRL download(String url) {
+        HttpDownloadableJob job = jobs.get(url);
+        if (job == null) {
+            job = new HttpDownloadableJob(url);
+            HttpDownloadableJob existing = jobs.putIfAbsent(url, job);
+            if (existing != null) {
+                job = existing;
+            }
+        }
+
+        return crlCache.getCrl(url, job);
+    }
+
+    private class HttpDownloadableJob implements DownloadableCrlJob {
+        private final String url;
+        private HttpCrlDownloader.DownloadedCrl base;
+        private HttpCrlDownloader.DownloadedCrl delta;
+        private String deltaUrl;
+        // the base CRL is indexed once per download of it, and reused when only the delta CRL has changed
+        private CRL baseCrl;
+        private CRL crl;
+
+        public HttpDownloadableJob(String url) {
+            this.url = url;
+        }
+
+        public synchronized CRL download() {
+            HttpCrlDownloader.DownloadedCrl newBase = downloader.download(url, base);
+
+            String newDeltaUrl = CRLDistributionPointsExtractor.extractFreshestCrlDistributionPoint(newBase.getCrl());
+            HttpCrlDownloader.DownloadedCrl newDelta = null;
+            if (newDeltaUrl != null) {
+                newDelta = downloader.download(newDeltaUrl, newDeltaUrl.equals(deltaUrl) ? delta : null);
+            }
+
+            // only parse the revocations again if something was actually downloaded
+            if (crl == null || newBase != base || newDelta != delta) {
+                if (baseCrl == null || newBase != base) {
+                    baseCrl = new CRL(newBase.getCrl());
+                }
+
+                CRL newCrl = baseCrl;
+                if (newDelta != null) {
+                    try {
+                        newCrl = baseCrl.withDelta(newDelta.getCrl());
+                    } catch (IllegalArgumentException e) {
+                        log.warn("Ignoring delta CRL " + newDeltaUrl + " for " + url + ": " + e.getMessage());
+                    }
+                }
+
+                crl = newCrl;
+            } else {
+                log.debug("CRL not modified: " + url);
+            }
+
+            base = newBase;
+            delta = newDelta;
+            deltaUrl = newDeltaUrl;
+
+            return crl;
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).append("url", url).toString();
+        }
+    }
+}
@@ -24,46 +24,66 @@
  */
 package org.openoces.ooapi.validation;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.openoces.ooapi.config.OOAPIConfiguration;
 import org.openoces.ooapi.environment.Environments.Environment;
 
-import lombok.extern.slf4j.Slf4j;
-
-@Slf4j
 public class CachedLdapCrlDownloader {
     private LdapCrlDownloader downloader = new LdapCrlDownloader();
     private CrlCache crlCache;
+    private CrlStore crlStore;
+
+    // every crl that has been requested, so they can be refreshed ahead of time by the CrlPrefetcher
+    private final ConcurrentMap<String, LdapDownloadableJob> knownCrls = new ConcurrentHashMap<String, LdapDownloadableJob>();
 
     public CachedLdapCrlDownloader() {
         this.crlCache = new CrlCache(OOAPIConfiguration.getInstance().getLdapCrlCacheTimeout());
+
+        String crlStoreDirectory = OOAPIConfiguration.getInstance().getCrlStoreDirectory();
+        if (crlStoreDirectory != null) {
+            crlStore = new CrlStore(crlStoreDirectory);
+
+            // the stored crls keep their original download time, so they are served at once but refreshed as soon as the cache timeout has passed
+            for (CrlStore.StoredCrl storedCrl : crlStore.loadValid()) {
+                knownCrls.put(storedCrl.getLdapPath(), new LdapDownloadableJob(storedCrl.getEnvironment(), storedCrl.getLdapPath()));
+                crlCache.put(storedCrl.getLdapPath(), storedCrl.getCrl(), storedCrl.getDownloaded());
+            }
+        }
     }
 
     public CRL download(Environment environment, String ldapPath) {
-        if (crlCache.isValid(ldapPath)) {
-            log.debug("Cache contains valid element - using it - key: " + ldapPath);
-            return crlCache.getCrl(ldapPath);
-        } else if (crlCache.isLocked(ldapPath)) {
-            // cache is NOT valid and it IS locked - lets see if cache contains CRL that is not expired
-            if (crlCache.checkOnlyIfCrlIsValid(ldapPath)) {
-                log.debug("Cache contains CRL that is not expired - we are using it");
-                return crlCache.getCrl(ldapPath);
-            } else {
-                // current cache is locked and old crl is not valid - wait in queue for new CRL update
-                log.debug("There is no CRL in cache - we have to wait in queue for download");
-                return downloadNewCrl(environment, ldapPath);
-            }
-        } else {
-            // CRL in cache is not valid and it IS NOT locked - retrieve new CRL
-            log.debug("Try retrieving new CRL from source " + ldapPath);
-            return downloadNewCrl(environment, ldapPath);
+        LdapDownloadableJob job = knownCrls.get(ldapPath);
+        if (job == null) {
+            job = new LdapDownloadableJob(environment, ldapPath);
+            knownCrls.putIfAbsent(ldapPath, job);
         }
+
+        return crlCache.getCrl(ldapPath, job);
     }
 
-    private CRL downloadNewCrl(Environment environment, String ldapPath) {
-        crlCache.downloadCrlAndUpdateCache(ldapPath, new LdapDownloadableJob(environment, ldapPath));
-        return crlCache.getCrl(ldapPath);
+    List<String> getKnownCrls() {
+        return new ArrayList<String>(knownCrls.keySet());
+    }
+
+    boolean needsRefresh(String ldapPath, long horizon) {
+        return crlCache.needsRefresh(ldapPath, horizon);
+    }
+
+    boolean hasUsableCrl(String ldapPath) {
+        return crlCache.checkOnlyIfCrlIsValid(ldapPath);
+    }
+
+    void refresh(String ldapPath) {
+        LdapDownloadableJob job = knownCrls.get(ldapPath);
+        if (job != null) {
+            crlCache.refresh(ldapPath, job);
+        }
     }
 
     private class LdapDownloadableJob implements DownloadableCrlJob {
@@ -76,7 +96,12 @@ public class CachedLdapCrlDownloader {
         }
 
         public CRL download() {
-            return downloader.download(environment, ldapPath);
+            CRL crl = downloader.download(environment, ldapPath);
+            if (crlStore != null) {
+                crlStore.save(environment, ldapPath, crl);
+            }
+
+            return crl;
         }
 
         @Override
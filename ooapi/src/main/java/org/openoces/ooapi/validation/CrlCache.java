@@ -24,12 +24,15 @@
  */
 package org.openoces.ooapi.validation;
 
-import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
@@ -37,10 +40,19 @@ import org.openoces.ooapi.exceptions.CrlNotYetValidException;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Non-blocking cache of CRLs. Readers are served the cached CRL as long as it is inside its
+ * nextUpdate window - if the cache timeout has passed, a single background refresh is started
+ * for the key while the old CRL keeps being served. Readers only wait when there is no usable
+ * CRL in the cache at all, and in that case all readers of the same key share one download.
+ */
 @Slf4j
-public class CrlCache {    
-    private final Map<String, CrlCacheElement> crls = Collections.synchronizedMap(new HashMap<String, CrlCacheElement>());
-    private final Map<String, CacheItemLock> locks = Collections.synchronizedMap(new HashMap<String, CacheItemLock>());
+public class CrlCache {
+    private static final int REFRESH_THREADS = 2;
+
+    private final ConcurrentMap<String, CrlCacheElement> crls = new ConcurrentHashMap<String, CrlCacheElement>();
+    private final ConcurrentMap<String, CompletableFuture<CRL>> downloads = new ConcurrentHashMap<String, CompletableFuture<CRL>>();
+    private final ExecutorService refreshExecutor;
     private final int timeout;
 
     /**
@@ -49,20 +61,73 @@ public class CrlCache {
      */
     public CrlCache(int timeout) {
         this.timeout = timeout;
+        this.refreshExecutor = Executors.newFixedThreadPool(REFRESH_THREADS, new DaemonThreadFactory("crl-cache-refresh-"));
     }
 
     public CRL getCrl(String key) {
-        return crls.get(key).getValue();
+        CrlCacheElement cacheElement = crls.get(key);
+
+        return (cacheElement != null) ? cacheElement.getValue() : null;
     }
 
     /**
      * @param key
      *            - the location of the crl / used as the map key
      * @param crl
-     *            - the crl that the cache needs to be updated with
+     *            - the crl to put in the cache
+     * @param creationDate
+     *            - the time the crl was downloaded, used for the cache timeout
+     * 
+     *            Used to seed the cache with crls that were downloaded earlier, e.g. by a previous run of the application
+     */
+    public void put(String key, CRL crl, Date creationDate) {
+        crls.put(key, new CrlCacheElement(crl, creationDate));
+    }
+
+    /**
+     * @param key
+     *            - the location of the crl / used as the map key
+     * @param job
+     *            - the job that retrieves the crl if the cache cannot serve it
+     * 
+     *            Returns the cached crl if it is usable, refreshing it in the background if the cache timeout has passed.
+     *            Only blocks if there is no usable crl in the cache.
+     */
+    public CRL getCrl(String key, DownloadableCrlJob job) {
+        CrlCacheElement cacheElement = crls.get(key);
+
+        if (cacheElement != null) {
+            if (isValid(cacheElement)) {
+                return cacheElement.getValue();
+            }
+
+            if (isCacheElementCrlValid(cacheElement)) {
+                log.debug("Cache contains CRL that is not expired - using it while refreshing in the background - key: " + key);
+                startDownload(key, job, true);
+
+                return cacheElement.getValue();
+            }
+        }
+
+        log.debug("There is no usable CRL in cache - waiting for download - key: " + key);
+        return await(startDownload(key, job, false));
+    }
+
+    /**
+     * @param key
+     *            - the location of the crl
+     * @param job
+     *            - the job that retrieves the crl
+     * 
+     *            Only one request must download crl, so concurrent callers for the same key wait for the same download
      */
-    private void updateCrlCache(String key, CRL crl) {
-        crls.put(key, new CrlCacheElement(crl));
+    public void downloadCrlAndUpdateCache(String key, DownloadableCrlJob job) {
+        if (isValid(key)) {
+            log.debug("Another request updated the cache, no need to execute new download");
+            return;
+        }
+
+        await(startDownload(key, job, false));
     }
 
     /**
@@ -71,30 +136,96 @@ public class CrlCache {
      * @param job
      *            - the job that retrieves the crl
      * 
-     *            Only one request must download crl therefore this method is synchronized and weuse a lock
+     *            Downloads the crl and updates the cache even if the cached crl is still valid. Used to refresh crls ahead of time.
+     */
+    public CRL refresh(String key, DownloadableCrlJob job) {
+        return await(startDownload(key, job, false));
+    }
+
+    /**
+     * @param key
+     *            - key of crl
+     * @param horizon
+     *            - time in milliseconds from now
+     * 
+     *            Checks if the cached crl is missing or will pass either the cache timeout or its nextUpdate within the given horizon
      */
-     public void downloadCrlAndUpdateCache(String key, DownloadableCrlJob job) {
-         CacheItemLock lock = getLock(key);
+    public boolean needsRefresh(String key, long horizon) {
+        CrlCacheElement cacheElement = crls.get(key);
+        if (cacheElement == null) {
+            return true;
+        }
+
+        long limit = System.currentTimeMillis() + horizon;
+        long deadline = cacheElement.getCreationDate().getTime() + TimeUnit.MINUTES.toMillis(timeout);
+
+        return deadline <= limit || cacheElement.getValue().getValidUntil().getTime() <= limit;
+    }
 
-         synchronized (lock){
-             try {
-                 lock.lock();
+    /**
+     * Starts a download of the crl unless one is already running for the key, in which case the running download is returned.
+     * A foreground download is executed on the calling thread, a background download on the refresh executor.
+     */
+    private CompletableFuture<CRL> startDownload(final String key, final DownloadableCrlJob job, final boolean background) {
+        CompletableFuture<CRL> download = downloads.get(key);
+        if (download != null) {
+            return download;
+        }
 
-                 // we need to check that different thread didn't update the cache while current thread was waiting
-                 if (isValid(key)) {
-                     log.debug("Another request updated the cache, no need to execute new download");
+        final CompletableFuture<CRL> newDownload = new CompletableFuture<CRL>();
+        download = downloads.putIfAbsent(key, newDownload);
+        if (download != null) {
+            return download;
+        }
 
-                     lock.unlock();
-                     return;
-                 }
+        Runnable task = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    CRL crl = job.download();
+                    crls.put(key, new CrlCacheElement(crl));
+                    log.debug("Downloaded a new CRL and updated the CRL cache!!");
+
+                    newDownload.complete(crl);
+                } catch (Throwable t) {
+                    if (background) {
+                        log.warn("Background refresh of CRL failed, keeping the cached CRL - job: " + job, t);
+                    }
+
+                    newDownload.completeExceptionally(t);
+                } finally {
+                    downloads.remove(key, newDownload);
+                }
+            }
+        };
+
+        if (!background) {
+            task.run();
+        } else {
+            try {
+                refreshExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                downloads.remove(key, newDownload);
+                newDownload.completeExceptionally(e);
+            }
+        }
 
-                 updateCrlCache(key, job.download());
-                 log.debug("Downloaded a new CRL and updated the CRL cache!!");
-             } finally {
-                 lock.unlock();
-             }
+        return newDownload;
+    }
 
-         }
+    private CRL await(CompletableFuture<CRL> download) {
+        try {
+            return download.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
     }
 
     public boolean isValid(String key) {
@@ -157,10 +288,8 @@ public class CrlCache {
      * If cache element is older than timeout than timeout it is usable if not CRL should be refreshed.
      */
     private boolean isCacheElementOlderThanTimeout(CrlCacheElement cacheElement) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(cacheElement.creationDate);
-        calendar.add(GregorianCalendar.MINUTE, timeout);
-        final boolean cacheElementOlderThanTimeout = calendar.getTime().after(new Date());
+        long deadline = cacheElement.getCreationDate().getTime() + TimeUnit.MINUTES.toMillis(timeout);
+        final boolean cacheElementOlderThanTimeout = deadline > System.currentTimeMillis();
         if (!cacheElementOlderThanTimeout) {
             log.debug("Cache contains element " + cacheElement + " but it is expired after cache timeout " + timeout + " minutes");
         }
@@ -169,8 +298,8 @@ public class CrlCache {
 
     static class CrlCacheElement {
 
-        private CRL crl;
-        private Date creationDate;
+        private final CRL crl;
+        private final Date creationDate;
 
         public CrlCacheElement(CRL crl) {
             this(crl, new Date());
@@ -194,40 +323,4 @@ public class CrlCache {
             return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).append("creationDate", creationDate).append("crl", crl).toString();
         }
     }
-
-    private class CacheItemLock {
-        @SuppressWarnings("unused")
-		String lockName;
-
-        boolean isLocked;
-        
-        CacheItemLock(String lockName){
-            this.lockName = lockName;
-        }
-
-        void lock(){
-            isLocked = true;
-        }
-
-        void unlock(){
-            isLocked = false;
-        }
-        
-        boolean isLocked(){
-            return isLocked;
-        }
-    }
-
-    private CacheItemLock getLock(String key){
-        synchronized (locks){
-            if (!locks.containsKey(key)){
-                locks.put(key, new CacheItemLock(key));
-            }
-            return locks.get(key);
-        }
-    }
-
-    public boolean isLocked(String key) {
-        return locks.containsKey(key) && locks.get(key).isLocked();
-    }
 }
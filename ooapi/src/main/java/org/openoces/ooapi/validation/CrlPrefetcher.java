@@ -0,0 +1,173 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openoces.ooapi.config.OOAPIConfiguration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Refreshes every CRL that has been requested through a <code>CachedLdapCrlDownloader</code> in the background,
+ * before either the cache timeout or the nextUpdate of the CRL is reached, so the login path does not have to
+ * download CRLs inline.
+ */
+@Slf4j
+public class CrlPrefetcher {
+    private final CachedLdapCrlDownloader crlDownloader;
+    private final long interval;
+    private final long jitter;
+    private final int threads;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> failures = new ConcurrentHashMap<String, String>();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+    private volatile Date lastRun;
+
+    CrlPrefetcher(CachedLdapCrlDownloader crlDownloader) {
+        OOAPIConfiguration configuration = OOAPIConfiguration.getInstance();
+
+        this.crlDownloader = crlDownloader;
+        this.interval = TimeUnit.SECONDS.toMillis(configuration.getCrlPrefetchInterval());
+        this.jitter = TimeUnit.SECONDS.toMillis(configuration.getCrlPrefetchJitter());
+        this.threads = configuration.getCrlPrefetchThreads();
+    }
+
+    synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("crl-prefetch-scheduler-"));
+        workers = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("crl-prefetch-"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                prefetch();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        log.info("CRL prefetching started with interval " + interval + " ms, jitter " + jitter + " ms and " + threads + " threads");
+    }
+
+    /**
+     * Schedules a refresh of every known CRL that will not be usable by the next run
+     */
+    void prefetch() {
+        try {
+            long horizon = interval + jitter;
+
+            for (final String ldapPath : crlDownloader.getKnownCrls()) {
+                if (!crlDownloader.needsRefresh(ldapPath, horizon) || !pending.add(ldapPath)) {
+                    continue;
+                }
+
+                long delay = (jitter > 0) ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+                scheduler.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        workers.execute(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                refresh(ldapPath);
+                            }
+                        });
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+
+            lastRun = new Date();
+        } catch (RuntimeException e) {
+            // never let an exception cancel the scheduled prefetching
+            log.error("CRL prefetch run failed", e);
+        }
+    }
+
+    private void refresh(String ldapPath) {
+        try {
+            crlDownloader.refresh(ldapPath);
+            failures.remove(ldapPath);
+
+            log.debug("Prefetched CRL " + ldapPath);
+        } catch (RuntimeException e) {
+            failures.put(ldapPath, String.valueOf(e.getMessage()));
+
+            log.warn("Failed to prefetch CRL " + ldapPath, e);
+        } finally {
+            pending.remove(ldapPath);
+        }
+    }
+
+    public boolean isRunning() {
+        return scheduler != null;
+    }
+
+    /**
+     * Gets the time of the last completed prefetch run, or null if no run has completed yet
+     */
+    public Date getLastRun() {
+        return lastRun;
+    }
+
+    public List<String> getKnownCrls() {
+        return crlDownloader.getKnownCrls();
+    }
+
+    /**
+     * Gets the known CRLs that have no usable (not expired) CRL in the cache
+     */
+    public List<String> getUnusableCrls() {
+        List<String> unusable = new ArrayList<String>();
+        for (String ldapPath : crlDownloader.getKnownCrls()) {
+            if (!crlDownloader.hasUsableCrl(ldapPath)) {
+                unusable.add(ldapPath);
+            }
+        }
+
+        return unusable;
+    }
+
+    /**
+     * Gets the error message of the last failed prefetch of each CRL that has not been successfully prefetched since
+     */
+    public Map<String, String> getFailures() {
+        return new HashMap<String, String>(failures);
+    }
+}
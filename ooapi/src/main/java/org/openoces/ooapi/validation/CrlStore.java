@@ -0,0 +1,182 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CRLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openoces.ooapi.environment.Environments.Environment;
+import org.openoces.ooapi.utils.X509CertificateFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Disk-backed store of downloaded CRLs. Each CRL is stored as its DER encoding next to a small properties file
+ * holding the location, environment, thisUpdate, nextUpdate and download time of the CRL, so that expired CRLs
+ * can be skipped on load without parsing them.
+ */
+@Slf4j
+public class CrlStore {
+    private static final String CRL_SUFFIX = ".crl";
+    private static final String METADATA_SUFFIX = ".properties";
+
+    private final Path directory;
+
+    public CrlStore(String directory) {
+        this.directory = Paths.get(directory);
+
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create CRL store directory " + directory, e);
+        }
+    }
+
+    /**
+     * Writes the crl to disk, replacing any previously stored crl for the same location
+     */
+    public void save(Environment environment, String ldapPath, CRL crl) {
+        String name = DigestUtils.sha256Hex(ldapPath);
+
+        Properties metadata = new Properties();
+        metadata.setProperty("ldapPath", ldapPath);
+        metadata.setProperty("environment", environment.name());
+        metadata.setProperty("thisUpdate", Long.toString(crl.getValidFrom().getTime()));
+        metadata.setProperty("nextUpdate", Long.toString(crl.getValidUntil().getTime()));
+        metadata.setProperty("downloaded", Long.toString(System.currentTimeMillis()));
+
+        try {
+            // the crl is written before the metadata, so a crl is never loaded from a partially written file
+            write(directory.resolve(name + CRL_SUFFIX), crl.getEncoded());
+
+            Path metadataTmp = Files.createTempFile(directory, name, METADATA_SUFFIX + ".tmp");
+            try (OutputStream out = Files.newOutputStream(metadataTmp)) {
+                metadata.store(out, null);
+            }
+            move(metadataTmp, directory.resolve(name + METADATA_SUFFIX));
+        } catch (IOException e) {
+            log.warn("Failed to store CRL " + ldapPath + " in " + directory, e);
+        }
+    }
+
+    /**
+     * Reads all stored crls that have not passed their nextUpdate
+     */
+    public List<StoredCrl> loadValid() {
+        List<StoredCrl> result = new ArrayList<StoredCrl>();
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + METADATA_SUFFIX)) {
+            for (Path metadataFile : files) {
+                try {
+                    Properties metadata = new Properties();
+                    try (InputStream in = Files.newInputStream(metadataFile)) {
+                        metadata.load(in);
+                    }
+
+                    if (Long.parseLong(metadata.getProperty("nextUpdate")) <= now) {
+                        log.debug("Skipping expired CRL " + metadata.getProperty("ldapPath"));
+                        continue;
+                    }
+
+                    String fileName = metadataFile.getFileName().toString();
+                    Path crlFile = directory.resolve(fileName.substring(0, fileName.length() - METADATA_SUFFIX.length()) + CRL_SUFFIX);
+                    CRL crl = new CRL(X509CertificateFactory.getInstance().generateCRL(new ByteArrayInputStream(Files.readAllBytes(crlFile))));
+
+                    Environment environment = Environment.valueOf(metadata.getProperty("environment"));
+                    Date downloaded = new Date(Long.parseLong(metadata.getProperty("downloaded")));
+
+                    result.add(new StoredCrl(environment, metadata.getProperty("ldapPath"), crl, downloaded));
+                } catch (IOException | CRLException | RuntimeException e) {
+                    log.warn("Failed to load stored CRL " + metadataFile, e);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to read CRL store directory " + directory, e);
+        }
+
+        log.info("Loaded " + result.size() + " CRLs from " + directory);
+
+        return result;
+    }
+
+    private void write(Path target, byte[] content) throws IOException {
+        Path tmp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        Files.write(tmp, content);
+        move(tmp, target);
+    }
+
+    private void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static class StoredCrl {
+        private final Environment environment;
+        private final String ldapPath;
+        private final CRL crl;
+        private final Date downloaded;
+
+        StoredCrl(Environment environment, String ldapPath, CRL crl, Date downloaded) {
+            this.environment = environment;
+            this.ldapPath = ldapPath;
+            this.crl = crl;
+            this.downloaded = downloaded;
+        }
+
+        public Environment getEnvironment() {
+            return environment;
+        }
+
+        public String getLdapPath() {
+            return ldapPath;
+        }
+
+        public CRL getCrl() {
+            return crl;
+        }
+
+        public Date getDownloaded() {
+            return downloaded;
+        }
+    }
+}
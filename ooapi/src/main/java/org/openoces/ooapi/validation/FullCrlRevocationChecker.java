@@ -0,0 +1,74 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.security.cert.X509CRLEntry;
+
+import org.openoces.ooapi.certificate.CA;
+import org.openoces.ooapi.certificate.OcesCertificateFacade;
+
+/**
+ * <code>RevocationChecker</code> based on the full CRL, retrieved over HTTP.
+ */
+public class FullCrlRevocationChecker implements RevocationChecker {
+	private static FullCrlRevocationChecker ourInstance = new FullCrlRevocationChecker();
+	private CachedHttpCrlDownloader crlDownloader;
+
+	private FullCrlRevocationChecker() {
+		crlDownloader = new CachedHttpCrlDownloader();
+	}
+
+	/**
+	 * Gives the <code>FullCrlRevocationChecker</code> singleton.
+	 */
+	public static FullCrlRevocationChecker getInstance() {
+		return ourInstance;
+	}
+
+	/**
+	 * The full CRL to check for revocation is retrieved using HTTP.
+	 */
+	public boolean isRevoked(OcesCertificateFacade certificate) {
+		CRL crl = crlDownloader.download(certificate.getCrlDistributionPoint());
+
+		return crl.isRevoked(certificate) || isRevoked(certificate.getSigningCA());
+	}
+
+	public X509CRLEntry getRevocationDetails(OcesCertificateFacade certificate) {
+		CRL crl = crlDownloader.download(certificate.getCrlDistributionPoint());
+
+		return crl.getRevocationDetails(certificate);
+	}
+
+	public boolean isRevoked(CA ca) {
+		if (ca.isRoot()) {
+			return false;
+		}
+
+		String crlDistributionPoint = CRLDistributionPointsExtractor.extractCRLDistributionPoints(ca.getCertificate()).getCrlDistributionPoint();
+
+		return crlDownloader.download(crlDistributionPoint).isRevoked(ca) || isRevoked(ca.getSigningCA());
+	}
+}
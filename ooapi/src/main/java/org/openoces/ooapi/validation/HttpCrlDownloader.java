@@ -0,0 +1,126 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.cert.CRLException;
+import java.security.cert.X509CRL;
+
+import org.openoces.ooapi.config.OOAPIConfiguration;
+import org.openoces.ooapi.utils.X509CertificateFactory;
+
+/**
+ * Downloads CRLs over HTTP using conditional GET requests, so an unchanged CRL costs a
+ * <code>304 Not Modified</code> response instead of a full transfer.
+ */
+public class HttpCrlDownloader {
+
+	/**
+	 * Downloads the CRL at the given location.
+	 * 
+	 * @param location http(s) URL of the CRL
+	 * @param previous the CRL previously downloaded from the location, or null
+	 * @return the downloaded CRL, or <code>previous</code> if the CRL has not been modified since it was downloaded
+	 */
+	public DownloadedCrl download(String location, DownloadedCrl previous) {
+		if (location == null) {
+			throw new IllegalArgumentException("location is null");
+		}
+		if (!location.toLowerCase().startsWith("http://") && !location.toLowerCase().startsWith("https://")) {
+			throw new IllegalArgumentException("location excepted to have the prefix 'http://' or 'https://'");
+		}
+
+		HttpURLConnection conn = null;
+		try {
+			int timeout = OOAPIConfiguration.getInstance().getHttpSocketAndLDAPTimeout() * 60 * 1000;// timeout in minutes
+
+			conn = (HttpURLConnection) new URL(location).openConnection();
+			conn.setConnectTimeout(timeout);
+			conn.setReadTimeout(timeout);
+			conn.setUseCaches(false);
+
+			if (previous != null) {
+				if (previous.getEtag() != null) {
+					conn.setRequestProperty("If-None-Match", previous.getEtag());
+				}
+				if (previous.getLastModified() > 0) {
+					conn.setIfModifiedSince(previous.getLastModified());
+				}
+			}
+
+			int responseCode = conn.getResponseCode();
+			if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+				return previous;
+			}
+			if (responseCode != HttpURLConnection.HTTP_OK) {
+				throw new IllegalStateException("Unexpected http response code " + responseCode + " when downloading CRL from " + location);
+			}
+
+			try (InputStream inStream = conn.getInputStream()) {
+				X509CRL crl = X509CertificateFactory.getInstance().generateCRL(inStream);
+
+				return new DownloadedCrl(crl, conn.getHeaderField("ETag"), conn.getLastModified());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (CRLException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * A downloaded CRL together with the validators needed for a conditional download of the same location
+	 */
+	public static class DownloadedCrl {
+		private final X509CRL crl;
+		private final String etag;
+		private final long lastModified;
+
+		DownloadedCrl(X509CRL crl, String etag, long lastModified) {
+			this.crl = crl;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public X509CRL getCrl() {
+			return crl;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -36,6 +36,7 @@ import javax.naming.directory.DirContext;
 
 import org.openoces.ooapi.environment.Environments.Environment;
 import org.openoces.ooapi.ldap.LDAPFactory;
+import org.openoces.ooapi.ldap.LdapConnectionPool;
 import org.openoces.ooapi.utils.X509CertificateFactory;
 
 public class LdapCrlDownloader {
@@ -44,57 +45,46 @@ public class LdapCrlDownloader {
 	private static final String CACERTIFICATE_BINARY = "cACertificate;binary";
 		
 	public CRL download(Environment environment, String ldapPath) {
-		DirContext ctx = LDAPFactory.createLdapContext(environment, CERTIFICATE_REVOCATION_LIST_BINARY);
-		try {
-			return downloadCrl(ctx, ldapPath);
-		} finally {
-			close(ctx);
-		}
+		return downloadCrl(LDAPFactory.getConnectionPool(environment), ldapPath);
 	}
 
     public CRL download(String ldapHost, String ldapPath) {
-		DirContext ctx = LDAPFactory.createLdapContext(ldapHost, CERTIFICATE_REVOCATION_LIST_BINARY);
-		try {
-			return downloadCrl(ctx, ldapPath);
-		} finally {
-			close(ctx);
-		}
+		return downloadCrl(LDAPFactory.getConnectionPool(ldapHost), ldapPath);
     }
 
-	public X509Certificate downloadCertificate(String ldapHost, String ldapPath) {
-		DirContext ctx = LDAPFactory.createLdapContext(ldapHost, CACERTIFICATE_BINARY);
-		try {
-			return downloadCaCertificate(ctx, ldapPath);
-		} finally {
-			close(ctx);
-		}
+	public X509Certificate downloadCertificate(String ldapHost, final String ldapPath) {
+		return LDAPFactory.getConnectionPool(ldapHost).execute(new LdapConnectionPool.LdapCallback<X509Certificate>() {
+
+			@Override
+			public X509Certificate doInLdap(DirContext ctx) throws NamingException {
+				return downloadCaCertificate(ctx, ldapPath);
+			}
+		});
 	}
 
-	private void close(DirContext ctx) {
-		try {
-			ctx.close();
-		} catch (NamingException e) {
-			throw new IllegalStateException(e);
-		}
+	private CRL downloadCrl(LdapConnectionPool pool, final String ldapPath) {
+		return pool.execute(new LdapConnectionPool.LdapCallback<CRL>() {
+
+			@Override
+			public CRL doInLdap(DirContext ctx) throws NamingException {
+				return downloadCrl(ctx, ldapPath);
+			}
+		});
 	}
 
-    private CRL downloadCrl(DirContext ctx, String ldapPath) {
+    private CRL downloadCrl(DirContext ctx, String ldapPath) throws NamingException {
 		try {
 			ByteArrayInputStream inStream = downloadAttribute(ctx, ldapPath, CERTIFICATE_REVOCATION_LIST_BINARY);
 			return new CRL(X509CertificateFactory.getInstance().generateCRL(inStream));
-		} catch(NamingException e) {
-			throw new IllegalStateException(e);
 		} catch(CRLException e) {
 			throw new IllegalStateException(e);
 		}
     }
 	
-	private X509Certificate downloadCaCertificate(DirContext ctx, String ldapPath) {
+	private X509Certificate downloadCaCertificate(DirContext ctx, String ldapPath) throws NamingException {
 		try {
 			ByteArrayInputStream inStream = downloadAttribute(ctx, ldapPath, CACERTIFICATE_BINARY);
 			return X509CertificateFactory.getInstance().generateCertificate(inStream);
-		} catch(NamingException e) {
-			throw new IllegalStateException(e);
 		} catch (CertificateException e) {
 			throw new IllegalStateException(e);
 		}
@@ -0,0 +1,278 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.CertStatus;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPRequest;
+import org.bouncycastle.asn1.ocsp.OCSPResponse;
+import org.bouncycastle.asn1.ocsp.OCSPResponseStatus;
+import org.bouncycastle.asn1.ocsp.Request;
+import org.bouncycastle.asn1.ocsp.ResponderID;
+import org.bouncycastle.asn1.ocsp.ResponseBytes;
+import org.bouncycastle.asn1.ocsp.ResponseData;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.ocsp.SingleResponse;
+import org.bouncycastle.asn1.ocsp.TBSRequest;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.openoces.ooapi.ObjectIdentifiers;
+import org.openoces.ooapi.exceptions.InternalException;
+import org.openoces.ooapi.utils.HttpClient;
+
+/**
+ * Minimal OCSP client (RFC 6960) built on the ASN.1 structures of Bouncy Castle. Requests are unsigned and
+ * without nonce, so responders are free to serve pre-produced responses. The response must be signed by the
+ * issuing CA or by a responder certificate issued by it for OCSP signing.
+ */
+class OcspClient {
+    private static final long MAX_CLOCK_SKEW = 5 * 60 * 1000;
+    private static final AlgorithmIdentifier SHA1 = new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1, DERNull.INSTANCE);
+
+    /**
+     * Asks the responder for the status of the certificate.
+     * 
+     * @param timeout connect and read timeout in milliseconds
+     * @throws IllegalStateException if the responder did not give a valid, definite answer for the certificate.
+     */
+    OcspStatus check(X509Certificate certificate, X509Certificate issuer, String responderUrl, int timeout) {
+        try {
+            CertID certId = createCertId(certificate.getSerialNumber(), issuer);
+            OCSPRequest request = new OCSPRequest(new TBSRequest(null, new DERSequence(new Request(certId, null)), (Extensions) null), null);
+
+            byte[] response = HttpClient.doPostOCSPRequest(request.getEncoded(ASN1Encoding.DER), responderUrl, timeout);
+
+            return parseResponse(response, certId, issuer);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create OCSP request for " + certificate.getSubjectDN(), e);
+        } catch (InternalException e) {
+            throw new IllegalStateException("OCSP request to " + responderUrl + " failed", e);
+        }
+    }
+
+    private OcspStatus parseResponse(byte[] encoded, CertID certId, X509Certificate issuer) throws IOException {
+        OCSPResponse response = OCSPResponse.getInstance(encoded);
+        int status = response.getResponseStatus().getValue().intValue();
+        if (status != OCSPResponseStatus.SUCCESSFUL) {
+            throw new IllegalStateException("OCSP responder returned status " + status);
+        }
+
+        ResponseBytes responseBytes = response.getResponseBytes();
+        if (responseBytes == null || !OCSPObjectIdentifiers.id_pkix_ocsp_basic.equals(responseBytes.getResponseType())) {
+            throw new IllegalStateException("OCSP responder did not return a basic OCSP response");
+        }
+
+        BasicOCSPResponse basicResponse = BasicOCSPResponse.getInstance(ASN1Primitive.fromByteArray(responseBytes.getResponse().getOctets()));
+        ResponseData responseData = basicResponse.getTbsResponseData();
+        verifySignature(basicResponse, getResponderKey(basicResponse, responseData.getResponderID(), issuer));
+
+        ASN1Sequence responses = responseData.getResponses();
+        for (int i = 0; i < responses.size(); i++) {
+            SingleResponse singleResponse = SingleResponse.getInstance(responses.getObjectAt(i));
+            if (matches(certId, singleResponse.getCertID())) {
+                return toStatus(singleResponse);
+            }
+        }
+
+        throw new IllegalStateException("OCSP response does not contain the status of serial " + certId.getSerialNumber().getValue());
+    }
+
+    // compared field by field, as responders may encode the absent parameters of the hash algorithm differently
+    private boolean matches(CertID requested, CertID responded) {
+        return requested.getSerialNumber().getValue().equals(responded.getSerialNumber().getValue())
+                && requested.getHashAlgorithm().getAlgorithm().equals(responded.getHashAlgorithm().getAlgorithm())
+                && requested.getIssuerNameHash().equals(responded.getIssuerNameHash())
+                && requested.getIssuerKeyHash().equals(responded.getIssuerKeyHash());
+    }
+
+    private OcspStatus toStatus(SingleResponse singleResponse) {
+        try {
+            Date thisUpdate = singleResponse.getThisUpdate().getDate();
+            Date nextUpdate = singleResponse.getNextUpdate() == null ? null : singleResponse.getNextUpdate().getDate();
+            long now = System.currentTimeMillis();
+
+            if (thisUpdate.getTime() > now + MAX_CLOCK_SKEW) {
+                throw new IllegalStateException("OCSP response is not yet valid - thisUpdate is " + thisUpdate);
+            }
+            if (nextUpdate != null && nextUpdate.getTime() < now) {
+                throw new IllegalStateException("OCSP response has expired - nextUpdate was " + nextUpdate);
+            }
+
+            CertStatus certStatus = singleResponse.getCertStatus();
+            switch (certStatus.getTagNo()) {
+                case 0:
+                    return new OcspStatus(false, null, thisUpdate, nextUpdate);
+                case 1:
+                    Date revocationTime = RevokedInfo.getInstance(certStatus.getStatus()).getRevocationTime().getDate();
+                    return new OcspStatus(true, revocationTime, thisUpdate, nextUpdate);
+                default:
+                    throw new IllegalStateException("OCSP responder does not know the certificate");
+            }
+        } catch (ParseException e) {
+            throw new IllegalStateException("Could not parse time in OCSP response", e);
+        }
+    }
+
+    private PublicKey getResponderKey(BasicOCSPResponse basicResponse, ResponderID responderId, X509Certificate issuer) {
+        if (isResponder(responderId, issuer)) {
+            return issuer.getPublicKey();
+        }
+
+        ASN1Sequence certs = basicResponse.getCerts();
+        if (certs != null) {
+            try {
+                CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+                for (int i = 0; i < certs.size(); i++) {
+                    X509Certificate responder = (X509Certificate) certificateFactory.generateCertificate(
+                            new ByteArrayInputStream(certs.getObjectAt(i).toASN1Primitive().getEncoded(ASN1Encoding.DER)));
+                    if (isResponder(responderId, responder)) {
+                        verifyDelegatedResponder(responder, issuer);
+                        return responder.getPublicKey();
+                    }
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("OCSP responder certificate could not be validated", e);
+            } catch (IOException e) {
+                throw new IllegalStateException("OCSP responder certificate could not be parsed", e);
+            }
+        }
+
+        throw new IllegalStateException("OCSP response is not signed by the issuer or a responder certificate issued by it");
+    }
+
+    private void verifyDelegatedResponder(X509Certificate responder, X509Certificate issuer) throws GeneralSecurityException {
+        responder.verify(issuer.getPublicKey());
+        responder.checkValidity();
+
+        List<String> extendedKeyUsage = responder.getExtendedKeyUsage();
+        if (extendedKeyUsage == null || !extendedKeyUsage.contains(ObjectIdentifiers.OCSP_RESPONSE_SIGNING)) {
+            throw new IllegalStateException("OCSP responder certificate " + responder.getSubjectDN() + " is not issued for OCSP signing");
+        }
+    }
+
+    private boolean isResponder(ResponderID responderId, X509Certificate certificate) {
+        if (responderId.getName() != null) {
+            return responderId.getName().equals(X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded()));
+        }
+
+        return Arrays.equals(responderId.getKeyHash(), keyHash(certificate));
+    }
+
+    private void verifySignature(BasicOCSPResponse basicResponse, PublicKey key) throws IOException {
+        try {
+            Signature signature = Signature.getInstance(basicResponse.getSignatureAlgorithm().getAlgorithm().getId());
+            signature.initVerify(key);
+            signature.update(basicResponse.getTbsResponseData().getEncoded(ASN1Encoding.DER));
+
+            if (!signature.verify(basicResponse.getSignature().getOctets())) {
+                throw new IllegalStateException("OCSP response signature is not valid");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("OCSP response signature could not be verified", e);
+        }
+    }
+
+    private CertID createCertId(BigInteger serialNumber, X509Certificate issuer) {
+        byte[] issuerNameHash = sha1(issuer.getSubjectX500Principal().getEncoded());
+
+        return new CertID(SHA1, new DEROctetString(issuerNameHash), new DEROctetString(keyHash(issuer)), new ASN1Integer(serialNumber));
+    }
+
+    private static byte[] keyHash(X509Certificate certificate) {
+        SubjectPublicKeyInfo publicKeyInfo = SubjectPublicKeyInfo.getInstance(certificate.getPublicKey().getEncoded());
+
+        return sha1(publicKeyInfo.getPublicKeyData().getBytes());
+    }
+
+    private static byte[] sha1(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The status of a single certificate as reported by the OCSP responder.
+     */
+    static class OcspStatus {
+        private final boolean revoked;
+        private final Date revocationTime;
+        private final Date thisUpdate;
+        private final Date nextUpdate;
+
+        OcspStatus(boolean revoked, Date revocationTime, Date thisUpdate, Date nextUpdate) {
+            this.revoked = revoked;
+            this.revocationTime = revocationTime;
+            this.thisUpdate = thisUpdate;
+            this.nextUpdate = nextUpdate;
+        }
+
+        public boolean isRevoked() {
+            return revoked;
+        }
+
+        public Date getRevocationTime() {
+            return revocationTime;
+        }
+
+        public Date getThisUpdate() {
+            return thisUpdate;
+        }
+
+        /**
+         * @return the time the responder will have newer information, or null if it always has.
+         */
+        public Date getNextUpdate() {
+            return nextUpdate;
+        }
+    }
+}
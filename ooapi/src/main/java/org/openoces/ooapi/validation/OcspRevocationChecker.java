@@ -0,0 +1,203 @@
+/*
+    Copyright 2010 Nets DanID
+
+    This file is part of OpenOcesAPI.
+
+    OpenOcesAPI is free software; you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation; either version 2.1 of the License, or
+    (at your option) any later version.
+
+    OpenOcesAPI is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with OpenOcesAPI; if not, write to the Free Software
+    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+
+    Note to developers:
+    If you add code to this file, please take a minute to add an additional
+    @author statement below.
+ */
+package org.openoces.ooapi.validation;
+
+import java.security.cert.X509CRLEntry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openoces.ooapi.certificate.CA;
+import org.openoces.ooapi.certificate.OcesCertificateFacade;
+import org.openoces.ooapi.config.OOAPIConfiguration;
+import org.openoces.ooapi.validation.OcspClient.OcspStatus;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * <code>RevocationChecker</code> based on OCSP.
+ * 
+ * Responses are cached per certificate until their nextUpdate, up to <code>ocsp.cache.size</code> responses of which
+ * the least recently used are dropped first, and concurrent checks of the same certificate share one request. If the responder does not answer within <code>ocsp.timeout</code> or gives no definite answer, the
+ * check falls back to the partitioned CRL. The CAs of the chain are always checked against the partitioned CRL.
+ */
+@Slf4j
+public class OcspRevocationChecker implements RevocationChecker {
+	private static OcspRevocationChecker ourInstance = new OcspRevocationChecker();
+	private final OcspClient ocspClient = new OcspClient();
+	private final Map<String, OcspCacheElement> responses;
+	private final ConcurrentMap<String, CompletableFuture<OcspStatus>> requests = new ConcurrentHashMap<String, CompletableFuture<OcspStatus>>();
+	private final ExecutorService requestExecutor;
+	private final int timeout;
+	private final int cacheTimeout;
+
+	private OcspRevocationChecker() {
+		OOAPIConfiguration configuration = OOAPIConfiguration.getInstance();
+		timeout = configuration.getOcspTimeout();
+		cacheTimeout = configuration.getOcspCacheTimeout();
+		final int cacheSize = configuration.getOcspCacheSize();
+		responses = new LinkedHashMap<String, OcspCacheElement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, OcspCacheElement> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		requestExecutor = Executors.newFixedThreadPool(configuration.getOcspThreads(), new DaemonThreadFactory("ocsp-"));
+	}
+
+	/**
+	 * Gives the <code>OcspRevocationChecker</code> singleton.
+	 */
+	public static OcspRevocationChecker getInstance() {
+		return ourInstance;
+	}
+
+	/**
+	 * The certificate is checked using OCSP, falling back to the partitioned CRL.
+	 */
+	public boolean isRevoked(OcesCertificateFacade certificate) {
+		OcspStatus status = getStatus(certificate);
+		if (status == null) {
+			return getFallbackChecker().isRevoked(certificate);
+		}
+
+		return status.isRevoked() || getFallbackChecker().isRevoked(certificate.getSigningCA());
+	}
+
+	/**
+	 * OCSP responses do not carry the CRL entry, so the details are read from the partitioned CRL.
+	 */
+	public X509CRLEntry getRevocationDetails(OcesCertificateFacade certificate) {
+		return getFallbackChecker().getRevocationDetails(certificate);
+	}
+
+	public boolean isRevoked(CA ca) {
+		return getFallbackChecker().isRevoked(ca);
+	}
+
+	private PartitionedCrlRevocationChecker getFallbackChecker() {
+		return PartitionedCrlRevocationChecker.getInstance();
+	}
+
+	/**
+	 * @return the status of the certificate, or null if the responder could not give it in time.
+	 */
+	private OcspStatus getStatus(OcesCertificateFacade certificate) {
+		String key = certificate.getIssuerDn() + "#" + certificate.getSerialNumber();
+
+		OcspCacheElement cacheElement;
+		synchronized (responses) {
+			cacheElement = responses.get(key);
+		}
+		if (cacheElement != null && !cacheElement.isExpired()) {
+			return cacheElement.getStatus();
+		}
+
+		try {
+			return startRequest(key, certificate).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			log.warn("OCSP responder did not answer within " + timeout + " ms, falling back to CRL - certificate: " + certificate.getSubjectDistinguishedName());
+		} catch (ExecutionException e) {
+			log.warn("OCSP check failed, falling back to CRL - certificate: " + certificate.getSubjectDistinguishedName(), e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for OCSP response", e);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Starts an OCSP request for the certificate unless one is already running for the key, in which case the running
+	 * request is returned. A request that outlives the timeout of the check still updates the cache when it completes.
+	 */
+	private CompletableFuture<OcspStatus> startRequest(final String key, final OcesCertificateFacade certificate) {
+		CompletableFuture<OcspStatus> request = requests.get(key);
+		if (request != null) {
+			return request;
+		}
+
+		final CompletableFuture<OcspStatus> newRequest = new CompletableFuture<OcspStatus>();
+		request = requests.putIfAbsent(key, newRequest);
+		if (request != null) {
+			return request;
+		}
+
+		requestExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					OcspStatus status = ocspClient.check(certificate.exportCertificate(), certificate.getSigningCA().getCertificate(), certificate.getOcspUrl(), timeout);
+					cache(key, status);
+
+					newRequest.complete(status);
+				} catch (Throwable t) {
+					newRequest.completeExceptionally(t);
+				} finally {
+					requests.remove(key, newRequest);
+				}
+			}
+		});
+
+		return newRequest;
+	}
+
+	private void cache(String key, OcspStatus status) {
+		long expires = status.getNextUpdate() != null
+				? status.getNextUpdate().getTime()
+				: System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(cacheTimeout);
+		synchronized (responses) {
+			responses.put(key, new OcspCacheElement(status, expires));
+		}
+	}
+
+	private static class OcspCacheElement {
+		private final OcspStatus status;
+		private final long expires;
+
+		OcspCacheElement(OcspStatus status, long expires) {
+			this.status = status;
+			this.expires = expires;
+		}
+
+		OcspStatus getStatus() {
+			return status;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expires;
+		}
+	}
+}
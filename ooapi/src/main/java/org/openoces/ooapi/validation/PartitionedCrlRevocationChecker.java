@@ -25,22 +25,53 @@
 package org.openoces.ooapi.validation;
 
 import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.openoces.ooapi.certificate.CA;
 import org.openoces.ooapi.certificate.OcesCertificateFacade;
+import org.openoces.ooapi.config.OOAPIConfiguration;
 import org.openoces.ooapi.environment.Environments.Environment;
 import org.openoces.ooapi.environment.RootCertificates;
 import org.openoces.ooapi.exceptions.InvalidCrlException;
 
 /**
  * <code>RevocationChecker</code> based on a partitioned CRL.
+ * 
+ * The CRLs of a certificate chain are resolved concurrently, and the check stops as soon as one of them reports
+ * a revocation. The CRL of the certificate itself is checked on the calling thread, and the CRLs of the CAs are
+ * handed to a small pool, or checked on the calling thread too when all of its threads are busy. For each CA the CRL it was last found not revoked in is remembered, so the CA is not checked again
+ * until that CRL has been replaced in the cache.
  */
 public class PartitionedCrlRevocationChecker implements RevocationChecker {
 	private static PartitionedCrlRevocationChecker ourInstance = new PartitionedCrlRevocationChecker();
 	private CachedLdapCrlDownloader crlDownloader;
+	private CrlPrefetcher crlPrefetcher;
+	private final ThreadPoolExecutor chainExecutor;
+	private final ConcurrentMap<X509Certificate, CRL> notRevokedVerdicts = new ConcurrentHashMap<X509Certificate, CRL>();
 
 	private PartitionedCrlRevocationChecker() {
 		crlDownloader = new CachedLdapCrlDownloader();
+		int chainThreads = OOAPIConfiguration.getInstance().getCrlChainThreads();
+		chainExecutor = new ThreadPoolExecutor(chainThreads, chainThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new DaemonThreadFactory("crl-chain-"), new ThreadPoolExecutor.CallerRunsPolicy());
+		chainExecutor.allowCoreThreadTimeOut(true);
+		crlPrefetcher = new CrlPrefetcher(crlDownloader);
+
+		if (OOAPIConfiguration.getInstance().isCrlPrefetchEnabled()) {
+			crlPrefetcher.start();
+		}
 	}
 
 	/**
@@ -51,17 +82,34 @@ public class PartitionedCrlRevocationChecker implements RevocationChecker {
 	}
 
 	/**
-	 * The partitioned CRL to check for revocation is retrieved using LDAP.
+	 * Gives the background refresher of the CRLs used by this checker.
 	 */
-	public boolean isRevoked(OcesCertificateFacade certificate) {
-		CRL crl = getCrlInstance(certificate);
+	public CrlPrefetcher getCrlPrefetcher() {
+		return crlPrefetcher;
+	}
+
+	/**
+	 * The partitioned CRL to check for revocation is retrieved using LDAP. The CRLs of the CAs in the chain are
+	 * checked in parallel with the CRL of the certificate.
+	 */
+	public boolean isRevoked(final OcesCertificateFacade certificate) {
+		final Environment environment = RootCertificates.getEnvironment(certificate.getSigningCA());
+
+		List<Callable<Boolean>> checks = new ArrayList<Callable<Boolean>>();
+		checks.add(new Callable<Boolean>() {
+
+			@Override
+			public Boolean call() {
+				return getCrlInstance(certificate, environment).isRevoked(certificate);
+			}
+		});
+		addChainChecks(checks, certificate.getSigningCA(), environment);
 
-		return crl.isRevoked(certificate) || isRevoked(certificate.getSigningCA());
+		return isAnyRevoked(checks);
 	}
 
-	private CRL getCrlInstance(OcesCertificateFacade certificate) {
+	private CRL getCrlInstance(OcesCertificateFacade certificate, Environment environment) {
 		String ldapPath = certificate.getPartitionedCrlDistributionPoint();
-		Environment environment = RootCertificates.getEnvironment(certificate.getSigningCA());
 		CRL crl = crlDownloader.download(environment, ldapPath);
 		
 		if (!crl.isPartial()) {
@@ -76,7 +124,7 @@ public class PartitionedCrlRevocationChecker implements RevocationChecker {
 	}
 
 	public X509CRLEntry getRevocationDetails(OcesCertificateFacade certificate) {
-		CRL crl = getCrlInstance(certificate);
+		CRL crl = getCrlInstance(certificate, RootCertificates.getEnvironment(certificate.getSigningCA()));
 		
 		return crl.getRevocationDetails(certificate);
 	}
@@ -86,9 +134,40 @@ public class PartitionedCrlRevocationChecker implements RevocationChecker {
 			return false;
 		}
 		
-		Environment environment = RootCertificates.getEnvironment(ca.getSigningCA());
-		
-		return downloadCrl(ca, environment).isRevoked(ca) || isRevoked(ca.getSigningCA());
+		List<Callable<Boolean>> checks = new ArrayList<Callable<Boolean>>();
+		addChainChecks(checks, ca, RootCertificates.getEnvironment(ca.getSigningCA()));
+
+		return isAnyRevoked(checks);
+	}
+
+	private void addChainChecks(List<Callable<Boolean>> checks, CA ca, final Environment environment) {
+		for (CA current = ca; !current.isRoot(); current = current.getSigningCA()) {
+			final CA chainCa = current;
+			checks.add(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() {
+					return isCaRevoked(chainCa, environment);
+				}
+			});
+		}
+	}
+
+	private boolean isCaRevoked(CA ca, Environment environment) {
+		CRL crl = downloadCrl(ca, environment);
+		X509Certificate certificate = ca.getCertificate();
+
+		if (crl == notRevokedVerdicts.get(certificate) && crl.isValid()) {
+			return false;
+		}
+
+		if (crl.isRevoked(ca)) {
+			notRevokedVerdicts.remove(certificate);
+			return true;
+		}
+
+		notRevokedVerdicts.put(certificate, crl);
+		return false;
 	}
 
 	private CRL downloadCrl(CA ca, Environment environment) {
@@ -96,4 +175,53 @@ public class PartitionedCrlRevocationChecker implements RevocationChecker {
 		
 		return crlDownloader.download(environment, crlDistributionPoint);
 	}
+
+	/**
+	 * Runs the first check on the calling thread and the others concurrently, and returns <code>true</code> as soon as
+	 * one of them reports a revocation, in which case the checks that have not started are cancelled. Running checks
+	 * are not interrupted, as they may be doing a CRL download that other callers of the <code>CrlCache</code> are
+	 * waiting for. A check that fails or does not complete within crl.chain.timeout makes the whole check fail.
+	 */
+	private boolean isAnyRevoked(List<Callable<Boolean>> checks) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(OOAPIConfiguration.getInstance().getCrlChainTimeout());
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(chainExecutor);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(checks.size() - 1);
+		try {
+			for (Callable<Boolean> check : checks.subList(1, checks.size())) {
+				futures.add(completionService.submit(check));
+			}
+
+			if (checks.get(0).call()) {
+				return true;
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				Future<Boolean> future = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (future == null) {
+					throw new IllegalStateException("Timed out checking revocation of the certificate chain");
+				}
+				if (future.get()) {
+					return true;
+				}
+			}
+
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while checking revocation", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		} finally {
+			for (Future<Boolean> future : futures) {
+				future.cancel(false);
+			}
+		}
+	}
 }
@@ -25,93 +25,170 @@
 
 package org.openoces.ooapi.web;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.security.KeyStore;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-import javax.mail.internet.MimeUtility;
-
+import org.apache.commons.codec.binary.Base64;
 import org.springframework.util.ResourceUtils;
 
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signs the parameters of the NemID client with the key of the service provider.
+ * 
+ * The keystore is decrypted once, after which the private key and the encoded certificate are kept in memory and
+ * each thread signs with its own <code>Signature</code> instance. If a reload interval is given, the keystore file is
+ * checked for changes at most once per interval and loaded again when it has been modified.
+ */
+@Slf4j
 public class Signer {
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    // keyed by keystore path, password and reload interval, so callers with different settings get different signers
+    private static final ConcurrentMap<List<Object>, Signer> instances = new ConcurrentHashMap<List<Object>, Signer>();
+
     private final String keystorePath;
     private final String keystorePwd;
-    private final String keyAlias;
-    private final String certificate;
-    private final KeyStore keyStore;
+    private final long reloadInterval;
+    private volatile SigningKey signingKey;
+    private volatile long nextReloadCheck;
+
+    private final ThreadLocal<Signature> signatures = new ThreadLocal<Signature>() {
+
+        @Override
+        protected Signature initialValue() {
+            try {
+                return Signature.getInstance(SIGNATURE_ALGORITHM);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
 
     public Signer(String keystorePath, String keystorePwd) {
+        this(keystorePath, keystorePwd, 0);
+    }
+
+    /**
+     * @param reloadInterval
+     *            seconds between checks for a modified keystore file, 0 disables reloading
+     */
+    public Signer(String keystorePath, String keystorePwd, int reloadInterval) {
         this.keystorePath = keystorePath;
         this.keystorePwd = keystorePwd;
-        this.keyStore = loadKeyStore();
-        
-        try {
-    		this.keyAlias = this.keyStore.aliases().nextElement();
-            this.certificate = loadCertificate(this.keyAlias);
-        }
-        catch (Exception ex) {
-        	throw new RuntimeException(ex.getMessage(), ex);
+        this.reloadInterval = TimeUnit.SECONDS.toMillis(reloadInterval);
+        this.signingKey = loadSigningKey();
+        this.nextReloadCheck = System.currentTimeMillis() + this.reloadInterval;
+    }
+
+    /**
+     * Gives the shared <code>Signer</code> of the keystore with the given password and reload interval, loading the keystore the first time it is requested.
+     * 
+     * @param reloadInterval
+     *            seconds between checks for a modified keystore file, 0 disables reloading
+     */
+    public static Signer getInstance(String keystorePath, String keystorePwd, int reloadInterval) {
+        List<Object> key = Arrays.<Object> asList(keystorePath, keystorePwd, reloadInterval);
+        Signer signer = instances.get(key);
+        if (signer == null) {
+            synchronized (instances) {
+                signer = instances.get(key);
+                if (signer == null) {
+                    signer = new Signer(keystorePath, keystorePwd, reloadInterval);
+                    instances.put(key, signer);
+                }
+            }
         }
+        return signer;
     }
 
     public String getCertificate() {
-        return certificate;
+        return getSigningKey().certificate;
     }
 
-    private String loadCertificate(String keyAlias) {
+    public byte[] calculateSignature(byte[] data) {
         try {
-            Certificate certificateFromKeyStore = keyStore.getCertificate(keyAlias);
-            byte[] encodedCertificate = certificateFromKeyStore.getEncoded();
-            String base64EncodedCertificate = base64Encode(encodedCertificate);
-            return base64EncodedCertificate.replace("\r", "").replace("\n", "");
+            Signature signer = signatures.get();
+
+            signer.initSign(getSigningKey().privateKey);
+            signer.update(data);
+
+            return signer.sign();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public byte[] calculateSignature(byte[] data) {
+    private SigningKey getSigningKey() {
+        if (reloadInterval > 0 && System.currentTimeMillis() >= nextReloadCheck) {
+            reloadIfModified();
+        }
+        return signingKey;
+    }
+
+    private synchronized void reloadIfModified() {
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        nextReloadCheck = now + reloadInterval;
+
         try {
-            PrivateKey key = (PrivateKey) keyStore.getKey(keyAlias, keystorePwd.toCharArray());
-            Signature signer = Signature.getInstance("SHA256withRSA");
+            if (getKeystoreFile().lastModified() != signingKey.lastModified) {
+                signingKey = loadSigningKey();
+                log.info("Reloaded modified keystore " + keystorePath);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not reload keystore " + keystorePath + ", keeping the current key", e);
+        }
+    }
 
-            signer.initSign(key);
-            signer.update(data);
+    private SigningKey loadSigningKey() {
+        try {
+            File file = getKeystoreFile();
+            long lastModified = file.lastModified();
 
-            return signer.sign();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            KeyStore ks = KeyStore.getInstance("PKCS12");
+            try (InputStream in = new FileInputStream(file)) {
+                ks.load(in, keystorePwd.toCharArray());
+            }
+
+            String keyAlias = ks.aliases().nextElement();
+            PrivateKey privateKey = (PrivateKey) ks.getKey(keyAlias, keystorePwd.toCharArray());
+            Certificate certificate = ks.getCertificate(keyAlias);
+
+            return new SigningKey(privateKey, Base64.encodeBase64String(certificate.getEncoded()), lastModified);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex.getMessage(), ex);
         }
     }
 
-	private KeyStore loadKeyStore() {
-		try {
-			KeyStore ks = KeyStore.getInstance("PKCS12");
-			File key = ResourceUtils.getFile(keystorePath);
-	
-			try (InputStream in = new FileInputStream(key)) {
-				ks.load(in, keystorePwd.toCharArray());
-			}
-	
-			return ks;
-		}
-		catch (Exception ex) {
-            throw new RuntimeException(ex);
-		}
-	}
-
-    private String base64Encode(byte[] b) throws Exception {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        // TODO: this is the only thing we use javax.mail dependency for - can we not find some other
-        //       way to do this?
-        OutputStream b64os = MimeUtility.encode(baos, "base64");
-        b64os.write(b);
-        b64os.close();
-        return new String(baos.toByteArray(), "US-ASCII");
+    private File getKeystoreFile() {
+        try {
+            return ResourceUtils.getFile(keystorePath);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex.getMessage(), ex);
+        }
+    }
+
+    private static class SigningKey {
+        private final PrivateKey privateKey;
+        private final String certificate;
+        private final long lastModified;
+
+        SigningKey(PrivateKey privateKey, String certificate, long lastModified) {
+            this.privateKey = privateKey;
+            this.certificate = certificate;
+            this.lastModified = lastModified;
+        }
     }
 }
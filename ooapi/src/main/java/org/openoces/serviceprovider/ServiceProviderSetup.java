@@ -26,6 +26,8 @@ package org.openoces.serviceprovider;
 
 import org.openoces.ooapi.environment.Environments;
 import org.openoces.ooapi.environment.Environments.Environment;
+import org.openoces.ooapi.validation.FullCrlRevocationChecker;
+import org.openoces.ooapi.validation.OcspRevocationChecker;
 import org.openoces.ooapi.validation.PartitionedCrlRevocationChecker;
 import org.openoces.ooapi.validation.RevocationChecker;
 
@@ -44,6 +46,14 @@ public class ServiceProviderSetup {
 		currentChecker = PartitionedCrlRevocationChecker.getInstance();
 	}
 
+	public static void setFullCrlRevocationChecker() {
+		currentChecker = FullCrlRevocationChecker.getInstance();
+	}
+
+	public static void setOcspRevocationChecker() {
+		currentChecker = OcspRevocationChecker.getInstance();
+	}
+
 	public static RevocationChecker getCurrentChecker() {
 		return currentChecker;
 	}
@@ -0,0 +1,91 @@
+package org.openoces.ooapi.fixtures;
+
+import java.io.StringWriter;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.xml.security.Init;
+import org.apache.xml.security.algorithms.MessageDigestAlgorithm;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.signature.ObjectContainer;
+import org.apache.xml.security.signature.SignatureProperties;
+import org.apache.xml.security.signature.SignatureProperty;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Builds the output of the Open Logon applet (the R2 format) for a logon, signed with the end user certificate
+ * of the <code>TestPki</code>.
+ */
+public class OpenlogonFixture {
+	public static final String LOGONTO = "os2nykode.benchmark";
+
+	private static final String NAMESPACEURI_OPENOCES_R2 = "http://www.openoces.org/2006/07/signature#";
+	private static final String XMLNS = "http://www.w3.org/2000/xmlns/";
+
+	/**
+	 * @param challenge the challenge to put in the signed properties
+	 * @return the signed document as given to <code>LogonHandler</code>
+	 */
+	public static String create(TestPki pki, String challenge) {
+		try {
+			Init.init();
+
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			Document doc = factory.newDocumentBuilder().newDocument();
+
+			Element root = doc.createElementNS(NAMESPACEURI_OPENOCES_R2, "openoces:signature");
+			root.setAttributeNS(XMLNS, "xmlns:openoces", NAMESPACEURI_OPENOCES_R2);
+			root.setAttribute("version", "0.1");
+			doc.appendChild(root);
+
+			XMLSignature signature = new XMLSignature(doc, "", XMLSignature.ALGO_ID_SIGNATURE_RSA_SHA256, Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+			root.appendChild(signature.getElement());
+
+			SignatureProperties properties = new SignatureProperties(doc);
+			properties.addSignatureProperty(createProperty(doc, "action", "bG9nb24=", "base64"));
+			properties.addSignatureProperty(createProperty(doc, "challenge", challenge, "xml"));
+			properties.addSignatureProperty(createProperty(doc, "logonto", LOGONTO, "xml"));
+
+			ObjectContainer toBeSigned = new ObjectContainer(doc);
+			toBeSigned.setId("ToBeSigned");
+			toBeSigned.appendChild(properties.getElement());
+			signature.appendObject(toBeSigned);
+
+			Transforms transforms = new Transforms(doc);
+			transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
+			signature.addDocument("#ToBeSigned", transforms, MessageDigestAlgorithm.ALGO_ID_DIGEST_SHA256);
+
+			signature.addKeyInfo(pki.getEndUser());
+			signature.addKeyInfo(pki.getIssuingCa());
+			signature.sign(pki.getEndUserKey());
+
+			StringWriter writer = new StringWriter();
+			TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(writer));
+			return writer.toString();
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot create Open Logon document", e);
+		}
+	}
+
+	private static SignatureProperty createProperty(Document doc, String name, String value, String encoding) {
+		Element nameElement = doc.createElementNS(NAMESPACEURI_OPENOCES_R2, "openoces:Name");
+		nameElement.appendChild(doc.createTextNode(name));
+
+		Element valueElement = doc.createElementNS(NAMESPACEURI_OPENOCES_R2, "openoces:Value");
+		valueElement.setAttribute("Encoding", encoding);
+		valueElement.setAttribute("VisibleToSigner", "yes");
+		valueElement.appendChild(doc.createTextNode(value));
+
+		SignatureProperty property = new SignatureProperty(doc, "signature");
+		property.getElement().appendChild(nameElement);
+		property.getElement().appendChild(valueElement);
+		return property;
+	}
+}
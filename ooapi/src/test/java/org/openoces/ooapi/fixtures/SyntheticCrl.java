@@ -0,0 +1,89 @@
+package org.openoces.ooapi.fixtures;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+
+/**
+ * Generates a CRL of the issuing CA of the <code>TestPki</code> with a given number of revoked certificates. The
+ * end user certificate of the <code>TestPki</code> is not among them, so a revocation check has to look through
+ * the whole CRL. The CRLs are partitioned CRLs for the distribution points of the <code>TestPki</code> certificates.
+ */
+@SuppressWarnings("deprecation")
+public class SyntheticCrl {
+	/**
+	 * The CRL number of the generated CRLs, which delta CRLs must be based on
+	 */
+	public static final BigInteger CRL_NUMBER = BigInteger.valueOf(100);
+
+	/**
+	 * @param revokedCertificates number of entries in the CRL
+	 * @return the DER encoded CRL, as it would be downloaded
+	 */
+	public static byte[] create(TestPki pki, int revokedCertificates) {
+		return create(pki.getIssuingCa(), pki.getIssuingCaKey(), TestPki.ISSUING_CA_PARTITION, revokedCertificates, pki.getEndUser().getSerialNumber());
+	}
+
+	/**
+	 * @return the DER encoded CRL of the root CA, which the issuing CA is checked against
+	 */
+	public static byte[] createRootCrl(TestPki pki, int revokedCertificates) {
+		return create(pki.getRoot(), pki.getRootKey(), TestPki.ROOT_PARTITION, revokedCertificates, pki.getIssuingCa().getSerialNumber());
+	}
+
+	private static byte[] create(X509Certificate issuer, PrivateKey issuerKey, String partition, int revokedCertificates, BigInteger excludedSerial) {
+		long now = System.currentTimeMillis();
+
+		X509V2CRLGenerator generator = new X509V2CRLGenerator();
+		generator.setIssuerDN(issuer.getSubjectX500Principal());
+		generator.setThisUpdate(new Date(now - TimeUnit.HOURS.toMillis(1)));
+		generator.setNextUpdate(new Date(now + TimeUnit.DAYS.toMillis(1)));
+		generator.setSignatureAlgorithm(TestPki.SIGNATURE_ALGORITHM);
+
+		generator.addExtension(Extension.cRLNumber, false, new CRLNumber(CRL_NUMBER));
+
+		DistributionPointName distributionPoint = new DistributionPointName(new GeneralNames(new GeneralName(new X500Name(partition))));
+		generator.addExtension(Extension.issuingDistributionPoint, true, new IssuingDistributionPoint(distributionPoint, false, false));
+
+		// OCES serial numbers are 32 bits, so random serials of that size give a realistic index
+		Random random = new Random(revokedCertificates);
+		Date revocationDate = new Date(now - TimeUnit.DAYS.toMillis(1));
+		for (int i = 0; i < revokedCertificates; i++) {
+			BigInteger serial = BigInteger.valueOf(random.nextInt() & 0xffffffffL);
+			if (!serial.equals(excludedSerial)) {
+				generator.addCRLEntry(serial, revocationDate, CRLReason.keyCompromise);
+			}
+		}
+
+		try {
+			return generator.generate(issuerKey, "BC").getEncoded();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot generate CRL", e);
+		}
+	}
+
+	public static X509CRL parse(byte[] crl) {
+		try {
+			return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(new ByteArrayInputStream(crl));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot parse CRL", e);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package org.openoces.ooapi.fixtures;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.codec.binary.Base64;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLDistPoint;
+import org.bouncycastle.asn1.x509.DistributionPoint;
+import org.bouncycastle.asn1.x509.DistributionPointName;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.PolicyInformation;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.openoces.ooapi.environment.Environments;
+import org.openoces.ooapi.environment.Environments.Environment;
+
+/**
+ * A locally generated root CA, issuing CA and POCES end user certificate, trusted as the localhost testing
+ * environment. The root certificate and the POCES policy of the environment are written to a temporary conf
+ * directory, which the ooapi reads its root certificates and its configuration from. The issuing CA and end user
+ * certificates point to partitioned CRLs, which can be put in the CRL store of the conf directory before the first
+ * revocation check, so the <code>PartitionedCrlRevocationChecker</code> finds them without going to LDAP.
+ *
+ * The ooapi can only be configured once per JVM, so there is a single instance, created the first time it is used.
+ */
+@SuppressWarnings("deprecation")
+public class TestPki {
+	static final String SIGNATURE_ALGORITHM = "SHA256WithRSAEncryption";
+
+	private static final String CONFDIR_PROPERTY_KEY = "dk.certifikat.oces2.confdir";
+	private static final Environment ENVIRONMENT = Environment.OCESII_DANID_ENV_LOCALHOST_TESTING;
+	private static final String POCES_POLICY_PREFIX = "1.2.3.4.5.1";
+	// in encoding order, as in the OCES certificates, where the CRL number is the last RDN
+	static final String ROOT_PARTITION = "C=DK, O=OS2nykode, CN=OOAPI Benchmark Root CA, CN=CRL1";
+	static final String ISSUING_CA_PARTITION = "C=DK, O=OS2nykode, CN=OOAPI Benchmark Issuing CA, CN=CRL1";
+	private static final AtomicLong serialNumbers = new AtomicLong(System.currentTimeMillis());
+	private static TestPki instance;
+
+	private final KeyPair rootKeys;
+	private final X509Certificate root;
+	private final KeyPair issuingCaKeys;
+	private final X509Certificate issuingCa;
+	private final KeyPair endUserKeys;
+	private final X509Certificate endUser;
+	private final File crlStoreDirectory;
+
+	private TestPki() throws GeneralSecurityException, IOException {
+		Security.addProvider(new BouncyCastleProvider());
+
+		rootKeys = generateKeyPair();
+		X500Principal rootDn = new X500Principal("CN=OOAPI Benchmark Root CA, O=OS2nykode, C=DK");
+		root = generateCaCertificate(rootDn, rootKeys.getPublic(), rootDn, rootKeys.getPrivate(), 1, null);
+
+		issuingCaKeys = generateKeyPair();
+		X500Principal issuingCaDn = new X500Principal("CN=OOAPI Benchmark Issuing CA, O=OS2nykode, C=DK");
+		issuingCa = generateCaCertificate(issuingCaDn, issuingCaKeys.getPublic(), rootDn, rootKeys.getPrivate(), 0, ROOT_PARTITION);
+
+		endUserKeys = generateKeyPair();
+		X500Principal endUserDn = new X500Principal("CN=Benchmark Person, SERIALNUMBER=PID:9208-2002-2-000000000001, O=Ingen organisatorisk tilknytning, C=DK");
+		endUser = generateEndUserCertificate(endUserDn, endUserKeys.getPublic(), issuingCaDn, issuingCaKeys.getPrivate());
+
+		File confDir = createTempDirectory();
+		crlStoreDirectory = new File(confDir, "crls");
+		writeConfDir(confDir, root, crlStoreDirectory);
+		System.setProperty(CONFDIR_PROPERTY_KEY, confDir.getAbsolutePath());
+		Environments.setEnvironments(ENVIRONMENT);
+	}
+
+	public static synchronized TestPki getInstance() {
+		if (instance == null) {
+			try {
+				instance = new TestPki();
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Cannot generate test PKI", e);
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot write test PKI configuration", e);
+			}
+		}
+		return instance;
+	}
+
+	public X509Certificate getRoot() {
+		return root;
+	}
+
+	public X509Certificate getIssuingCa() {
+		return issuingCa;
+	}
+
+	public PrivateKey getRootKey() {
+		return rootKeys.getPrivate();
+	}
+
+	public PrivateKey getIssuingCaKey() {
+		return issuingCaKeys.getPrivate();
+	}
+
+	public X509Certificate getEndUser() {
+		return endUser;
+	}
+
+	public PrivateKey getEndUserKey() {
+		return endUserKeys.getPrivate();
+	}
+
+	public Environment getEnvironment() {
+		return ENVIRONMENT;
+	}
+
+	/**
+	 * The directory the <code>CachedLdapCrlDownloader</code> loads stored CRLs from when it is created
+	 */
+	public String getCrlStoreDirectory() {
+		return crlStoreDirectory.getAbsolutePath();
+	}
+
+	private static KeyPair generateKeyPair() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		return generator.generateKeyPair();
+	}
+
+	private static X509Certificate generateCaCertificate(X500Principal subject, PublicKey publicKey, X500Principal issuer, PrivateKey issuerKey, int pathLength, String crlPartition) throws GeneralSecurityException {
+		X509V3CertificateGenerator generator = createGenerator(subject, publicKey, issuer);
+		generator.addExtension(Extension.basicConstraints, true, new BasicConstraints(pathLength));
+		generator.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+		if (crlPartition != null) {
+			addCrlDistributionPoint(generator, crlPartition);
+		}
+		return toJdkCertificate(generator.generate(issuerKey, "BC"));
+	}
+
+	private static X509Certificate generateEndUserCertificate(X500Principal subject, PublicKey publicKey, X500Principal issuer, PrivateKey issuerKey) throws GeneralSecurityException {
+		X509V3CertificateGenerator generator = createGenerator(subject, publicKey, issuer);
+		generator.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.digitalSignature | KeyUsage.nonRepudiation));
+		PolicyInformation policy = new PolicyInformation(new ASN1ObjectIdentifier(POCES_POLICY_PREFIX + ".1.1"));
+		generator.addExtension(Extension.certificatePolicies, false, new DERSequence(policy));
+		addCrlDistributionPoint(generator, ISSUING_CA_PARTITION);
+		return toJdkCertificate(generator.generate(issuerKey, "BC"));
+	}
+
+	private static void addCrlDistributionPoint(X509V3CertificateGenerator generator, String crlPartition) {
+		DistributionPointName name = new DistributionPointName(new GeneralNames(new GeneralName(new X500Name(crlPartition))));
+		generator.addExtension(Extension.cRLDistributionPoints, false, new CRLDistPoint(new DistributionPoint[] { new DistributionPoint(name, null, null) }));
+	}
+
+	private static X509V3CertificateGenerator createGenerator(X500Principal subject, PublicKey publicKey, X500Principal issuer) {
+		long now = System.currentTimeMillis();
+
+		X509V3CertificateGenerator generator = new X509V3CertificateGenerator();
+		generator.setSerialNumber(BigInteger.valueOf(serialNumbers.incrementAndGet()));
+		generator.setSubjectDN(subject);
+		generator.setIssuerDN(issuer);
+		generator.setPublicKey(publicKey);
+		generator.setNotBefore(new Date(now - TimeUnit.DAYS.toMillis(1)));
+		generator.setNotAfter(new Date(now + TimeUnit.DAYS.toMillis(365)));
+		generator.setSignatureAlgorithm(SIGNATURE_ALGORITHM);
+		return generator;
+	}
+
+	// the ooapi gets its certificates from the JDK certificate factory, so the tests and benchmarks should use the same classes
+	private static X509Certificate toJdkCertificate(X509Certificate certificate) throws GeneralSecurityException {
+		return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(certificate.getEncoded()));
+	}
+
+	private static File createTempDirectory() throws IOException {
+		File confDir = File.createTempFile("ooapi-benchmarks", "");
+		if (!confDir.delete() || !confDir.mkdir()) {
+			throw new IOException("Cannot create conf directory " + confDir);
+		}
+		confDir.deleteOnExit();
+		return confDir;
+	}
+
+	// the stored CRLs must not be refreshed from LDAP while the tests and benchmarks run, so the cache timeout is a day
+	private static void writeConfDir(File confDir, X509Certificate root, File crlStoreDirectory) throws IOException, GeneralSecurityException {
+		String pem = "-----BEGIN CERTIFICATE-----\n" + Base64.encodeBase64String(root.getEncoded()) + "\n-----END CERTIFICATE-----\n";
+		write(new File(confDir, "oces2_localhost.pem"), pem);
+		write(new File(confDir, "ooapi.properties"), "poces.policies.prefix.danid." + ENVIRONMENT + "=" + POCES_POLICY_PREFIX + "\n"
+				+ "crl.store.directory=" + crlStoreDirectory.getAbsolutePath().replace("\\", "/") + "\n"
+				+ "crl.cache.timeout.ldap=1440\n");
+	}
+
+	private static void write(File file, String content) throws IOException {
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes(StandardCharsets.US_ASCII));
+		} finally {
+			out.close();
+		}
+	}
+}
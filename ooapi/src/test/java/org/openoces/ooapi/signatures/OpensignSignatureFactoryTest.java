@@ -0,0 +1,74 @@
+package org.openoces.ooapi.signatures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openoces.ooapi.fixtures.OpenlogonFixture;
+import org.openoces.ooapi.fixtures.TestPki;
+
+/**
+ * Tests the signature properties read from an Open Logon document by <code>OpensignSignatureFactory</code>. The
+ * documents are signed with exclusive canonicalization without comments, so comments and CDATA sections can be put
+ * in a property value without breaking the signature.
+ */
+public class OpensignSignatureFactoryTest {
+	private static final String CHALLENGE = "challenge-4f2a9c";
+
+	private static String document;
+
+	@BeforeClass
+	public static void setup() {
+		document = OpenlogonFixture.create(TestPki.getInstance(), CHALLENGE);
+	}
+
+	@Test
+	public void logonIsRecognized() throws Exception {
+		OpensignAbstractSignature signature = OpensignSignatureFactory.getInstance().generateOpensignSignature(document);
+
+		assertTrue(signature instanceof OpenlogonSignature);
+		assertTrue(signature.verify());
+
+		Map<String, SignatureProperty> properties = signature.getSignatureProperties();
+		assertEquals(3, properties.size());
+		assertEquals("logon", properties.get("action").getValue());
+		assertEquals(CHALLENGE, properties.get("challenge").getValue());
+		assertEquals(OpenlogonFixture.LOGONTO, properties.get("logonto").getValue());
+		assertTrue(properties.get("challenge").isVisibleToSigner());
+	}
+
+	@Test
+	public void cdataValueIsRead() throws Exception {
+		assertEquals(CHALLENGE, readChallenge("<![CDATA[" + CHALLENGE + "]]>"));
+	}
+
+	// the value is the first child node of Value, as the OOAPI has always read it, so a value split by a comment or a
+	// CDATA section is cut off there even though the signed, canonical text is the whole value
+
+	@Test
+	public void valueBeforeCommentIsRead() throws Exception {
+		assertEquals("challenge-", readChallenge("challenge-<!--comment-->4f2a9c"));
+	}
+
+	@Test
+	public void commentBeforeValueIsRead() throws Exception {
+		assertEquals("comment", readChallenge("<!--comment-->" + CHALLENGE));
+	}
+
+	@Test
+	public void valueBeforeCdataIsRead() throws Exception {
+		assertEquals("challenge-", readChallenge("challenge-<![CDATA[4f2a9c]]>"));
+	}
+
+	private static String readChallenge(String value) throws Exception {
+		String changed = document.replace(">" + CHALLENGE + "<", ">" + value + "<");
+		assertTrue(!changed.equals(document));
+
+		OpensignAbstractSignature signature = OpensignSignatureFactory.getInstance().generateOpensignSignature(changed);
+		assertTrue(signature.verify());
+		return signature.getSignatureProperties().get("challenge").getValue();
+	}
+}
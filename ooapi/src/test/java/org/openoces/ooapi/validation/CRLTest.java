@@ -0,0 +1,206 @@
+package org.openoces.ooapi.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openoces.ooapi.fixtures.SyntheticCrl;
+import org.openoces.ooapi.fixtures.TestPki;
+import org.openoces.ooapi.certificate.OcesCertificate;
+import org.openoces.ooapi.certificate.OcesCertificateFactory;
+
+/**
+ * Tests the index of revoked serial numbers in <code>CRL</code> and the merging of delta CRLs, with CRLs of the
+ * issuing CA of the <code>TestPki</code>.
+ */
+@SuppressWarnings("deprecation")
+public class CRLTest {
+	private static final BigInteger[] SERIALS = {
+			BigInteger.ONE,
+			BigInteger.valueOf(0xfffffffeL),
+			BigInteger.valueOf(Long.MAX_VALUE),
+			BigInteger.ONE.shiftLeft(63),
+			BigInteger.ONE.shiftLeft(100).add(BigInteger.TEN) };
+
+	private static TestPki pki;
+	private static OcesCertificate certificate;
+	private static BigInteger endUserSerial;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		pki = TestPki.getInstance();
+
+		ArrayList<X509Certificate> chain = new ArrayList<X509Certificate>();
+		chain.add(pki.getEndUser());
+		chain.add(pki.getIssuingCa());
+		certificate = OcesCertificateFactory.getInstance().generate(chain);
+		endUserSerial = pki.getEndUser().getSerialNumber();
+	}
+
+	@Test
+	public void certificateNotOnCrlIsNotRevoked() {
+		CRL crl = new CRL(SyntheticCrl.parse(SyntheticCrl.create(pki, 10000)));
+
+		assertFalse(crl.isRevoked(certificate));
+		assertNull(crl.getRevocationDetails(certificate));
+	}
+
+	@Test
+	public void certificateOnCrlIsRevoked() {
+		CRL crl = new CRL(issue(null, entries(endUserSerial, CRLReason.keyCompromise)));
+
+		assertTrue(crl.isRevoked(certificate));
+		assertNotNull(crl.getRevocationDetails(certificate));
+	}
+
+	@Test
+	public void indexHoldsSerialsOfAnySize() {
+		Map<BigInteger, Integer> entries = new LinkedHashMap<BigInteger, Integer>();
+		for (BigInteger serial : SERIALS) {
+			entries.put(serial, CRLReason.keyCompromise);
+		}
+
+		CRL crl = new CRL(issue(null, entries));
+
+		assertEquals(hex(SERIALS), crl.getRevokedCertificates(new Date(0)));
+		assertFalse(crl.isRevoked(certificate));
+	}
+
+	@Test
+	public void deltaCrlRevokesCertificate() {
+		CRL base = new CRL(SyntheticCrl.parse(SyntheticCrl.create(pki, 1000)));
+		CRL crl = base.withDelta(issue(SyntheticCrl.CRL_NUMBER, entries(endUserSerial, CRLReason.keyCompromise)));
+
+		assertFalse(base.isRevoked(certificate));
+		assertTrue(crl.isRevoked(certificate));
+		assertNotNull(crl.getRevocationDetails(certificate));
+	}
+
+	@Test
+	public void deltaCrlRemovesCertificateOnHold() {
+		CRL base = new CRL(issue(null, entries(endUserSerial, CRLReason.certificateHold)));
+		CRL crl = base.withDelta(issue(SyntheticCrl.CRL_NUMBER, entries(endUserSerial, CRLReason.removeFromCRL)));
+
+		assertTrue(base.isRevoked(certificate));
+		assertFalse(crl.isRevoked(certificate));
+		assertNull(crl.getRevocationDetails(certificate));
+		assertTrue(crl.getRevokedCertificates(new Date(0)).isEmpty());
+	}
+
+	@Test
+	public void newDeltaCrlReplacesPreviousDeltaCrl() {
+		CRL base = new CRL(SyntheticCrl.parse(SyntheticCrl.create(pki, 1000)));
+		CRL crl = base.withDelta(issue(SyntheticCrl.CRL_NUMBER, entries(endUserSerial, CRLReason.keyCompromise)))
+				.withDelta(issue(SyntheticCrl.CRL_NUMBER, entries(SERIALS[0], CRLReason.keyCompromise)));
+
+		assertFalse(crl.isRevoked(certificate));
+	}
+
+	@Test
+	public void deltaCrlGivesSameIndexWithAndWithoutPreviousDelta() {
+		Map<BigInteger, Integer> baseEntries = new LinkedHashMap<BigInteger, Integer>();
+		baseEntries.put(SERIALS[0], CRLReason.certificateHold);
+		baseEntries.put(SERIALS[1], CRLReason.keyCompromise);
+		baseEntries.put(SERIALS[3], CRLReason.certificateHold);
+
+		Map<BigInteger, Integer> deltaEntries = new LinkedHashMap<BigInteger, Integer>();
+		deltaEntries.put(SERIALS[0], CRLReason.removeFromCRL);
+		deltaEntries.put(SERIALS[2], CRLReason.keyCompromise);
+		deltaEntries.put(SERIALS[3], CRLReason.removeFromCRL);
+		deltaEntries.put(SERIALS[4], CRLReason.keyCompromise);
+		X509CRL delta = issue(SyntheticCrl.CRL_NUMBER, deltaEntries);
+
+		CRL base = new CRL(issue(null, baseEntries));
+		CRL merged = base.withDelta(delta);
+		CRL reindexed = base.withDelta(issue(SyntheticCrl.CRL_NUMBER, entries(SERIALS[4], CRLReason.keyCompromise))).withDelta(delta);
+
+		Set<String> expected = hex(SERIALS[1], SERIALS[2], SERIALS[4]);
+		assertEquals(expected, merged.getRevokedCertificates(new Date(0)));
+		assertEquals(expected, reindexed.getRevokedCertificates(new Date(0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void withDeltaRejectsCrlWithoutDeltaIndicator() {
+		new CRL(issue(null, entries(SERIALS[0], CRLReason.keyCompromise))).withDelta(issue(null, entries(endUserSerial, CRLReason.keyCompromise)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void withDeltaRejectsDeltaCrlOfAnotherIssuer() {
+		X509CRL rootDelta = issue(pki.getRoot(), pki.getRootKey(), SyntheticCrl.CRL_NUMBER, entries(SERIALS[0], CRLReason.keyCompromise));
+
+		new CRL(issue(null, entries(SERIALS[1], CRLReason.keyCompromise))).withDelta(rootDelta);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void withDeltaRejectsDeltaCrlOfNewerBaseCrl() {
+		new CRL(issue(null, entries(SERIALS[0], CRLReason.keyCompromise))).withDelta(issue(SyntheticCrl.CRL_NUMBER.add(BigInteger.ONE), entries(endUserSerial, CRLReason.keyCompromise)));
+	}
+
+	private static Map<BigInteger, Integer> entries(BigInteger serial, int reason) {
+		Map<BigInteger, Integer> entries = new LinkedHashMap<BigInteger, Integer>();
+		entries.put(serial, reason);
+		return entries;
+	}
+
+	private static Set<String> hex(BigInteger... serials) {
+		Set<String> result = new TreeSet<String>();
+		for (BigInteger serial : serials) {
+			result.add(serial.toString(16));
+		}
+		return result;
+	}
+
+	// a CRL of the issuing CA, which is a delta CRL if a base CRL number is given
+	private static X509CRL issue(BigInteger baseCrlNumber, Map<BigInteger, Integer> entries) {
+		return issue(pki.getIssuingCa(), pki.getIssuingCaKey(), baseCrlNumber, entries);
+	}
+
+	private static X509CRL issue(X509Certificate issuer, PrivateKey issuerKey, BigInteger baseCrlNumber, Map<BigInteger, Integer> entries) {
+		long now = System.currentTimeMillis();
+
+		X509V2CRLGenerator generator = new X509V2CRLGenerator();
+		generator.setIssuerDN(issuer.getSubjectX500Principal());
+		generator.setThisUpdate(new Date(now - TimeUnit.HOURS.toMillis(1)));
+		generator.setNextUpdate(new Date(now + TimeUnit.DAYS.toMillis(1)));
+		generator.setSignatureAlgorithm("SHA256WithRSAEncryption");
+
+		if (baseCrlNumber != null) {
+			generator.addExtension(Extension.cRLNumber, false, new CRLNumber(SyntheticCrl.CRL_NUMBER.add(BigInteger.TEN)));
+			generator.addExtension(Extension.deltaCRLIndicator, true, new CRLNumber(baseCrlNumber));
+		} else {
+			generator.addExtension(Extension.cRLNumber, false, new CRLNumber(SyntheticCrl.CRL_NUMBER));
+		}
+
+		Date revocationDate = new Date(now - TimeUnit.DAYS.toMillis(1));
+		for (Map.Entry<BigInteger, Integer> entry : entries.entrySet()) {
+			generator.addCRLEntry(entry.getKey(), revocationDate, entry.getValue());
+		}
+
+		try {
+			return SyntheticCrl.parse(generator.generate(issuerKey, "BC").getEncoded());
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot generate CRL", e);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.openoces.ooapi.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.CertStatus;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.OCSPResponse;
+import org.bouncycastle.asn1.ocsp.OCSPResponseStatus;
+import org.bouncycastle.asn1.ocsp.ResponderID;
+import org.bouncycastle.asn1.ocsp.ResponseBytes;
+import org.bouncycastle.asn1.ocsp.ResponseData;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.ocsp.SingleResponse;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openoces.ooapi.fixtures.TestPki;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the parsing and checking of OCSP responses in <code>OcspClient</code>, against a local responder that answers
+ * with responses built for the end user certificate of the <code>TestPki</code>.
+ */
+public class OcspClientTest {
+	private static final int TIMEOUT = 5000;
+
+	private static TestPki pki;
+	private static HttpServer server;
+	private static String responderUrl;
+	private static volatile byte[] response;
+
+	@BeforeClass
+	public static void setup() throws IOException {
+		pki = TestPki.getInstance();
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ocsp", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				InputStream in = exchange.getRequestBody();
+				while (in.read() != -1) {
+					// the request is not needed, the response is set by the test
+				}
+
+				byte[] body = response;
+				exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		responderUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/ocsp";
+	}
+
+	@AfterClass
+	public static void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	public void goodStatusIsNotRevoked() {
+		Date nextUpdate = hoursFromNow(1);
+		response = respond(pki.getEndUser().getSerialNumber(), new CertStatus(), pki.getIssuingCaKey(), nextUpdate);
+
+		OcspClient.OcspStatus status = check();
+
+		assertFalse(status.isRevoked());
+		assertNull(status.getRevocationTime());
+		assertEquals(nextUpdate.getTime() / 1000, status.getNextUpdate().getTime() / 1000);
+	}
+
+	@Test
+	public void revokedStatusIsRevoked() {
+		Date revocationTime = new Date((System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)) / 1000 * 1000);
+		CertStatus revoked = new CertStatus(new RevokedInfo(new ASN1GeneralizedTime(revocationTime), null));
+		response = respond(pki.getEndUser().getSerialNumber(), revoked, pki.getIssuingCaKey(), hoursFromNow(1));
+
+		OcspClient.OcspStatus status = check();
+
+		assertTrue(status.isRevoked());
+		assertEquals(revocationTime, status.getRevocationTime());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unknownStatusFails() {
+		response = respond(pki.getEndUser().getSerialNumber(), new CertStatus(2, DERNull.INSTANCE), pki.getIssuingCaKey(), hoursFromNow(1));
+
+		check();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void responseWithoutTheRequestedSerialFails() {
+		response = respond(pki.getEndUser().getSerialNumber().add(BigInteger.ONE), new CertStatus(), pki.getIssuingCaKey(), hoursFromNow(1));
+
+		check();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void responseSignedWithAnotherKeyFails() {
+		response = respond(pki.getEndUser().getSerialNumber(), new CertStatus(), pki.getRootKey(), hoursFromNow(1));
+
+		check();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void expiredResponseFails() {
+		response = respond(pki.getEndUser().getSerialNumber(), new CertStatus(), pki.getIssuingCaKey(), hoursFromNow(-1));
+
+		check();
+	}
+
+	private static OcspClient.OcspStatus check() {
+		return new OcspClient().check(pki.getEndUser(), pki.getIssuingCa(), responderUrl, TIMEOUT);
+	}
+
+	private static Date hoursFromNow(int hours) {
+		return new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(hours));
+	}
+
+	// a basic OCSP response by the issuing CA (by name), with a single response for the serial number
+	private static byte[] respond(BigInteger serialNumber, CertStatus certStatus, PrivateKey signingKey, Date nextUpdate) {
+		try {
+			X509Certificate issuer = pki.getIssuingCa();
+			AlgorithmIdentifier sha1 = new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1, DERNull.INSTANCE);
+			byte[] issuerKey = SubjectPublicKeyInfo.getInstance(issuer.getPublicKey().getEncoded()).getPublicKeyData().getBytes();
+			CertID certId = new CertID(sha1, new DEROctetString(sha1(issuer.getSubjectX500Principal().getEncoded())), new DEROctetString(sha1(issuerKey)), new ASN1Integer(serialNumber));
+
+			Date thisUpdate = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+			SingleResponse singleResponse = new SingleResponse(certId, certStatus, new ASN1GeneralizedTime(thisUpdate), new ASN1GeneralizedTime(nextUpdate), (Extensions) null);
+			ResponderID responderId = new ResponderID(X500Name.getInstance(issuer.getSubjectX500Principal().getEncoded()));
+			ResponseData responseData = new ResponseData(responderId, new ASN1GeneralizedTime(new Date()), new DERSequence(singleResponse), (Extensions) null);
+
+			Signature signature = Signature.getInstance("SHA256withRSA");
+			signature.initSign(signingKey);
+			signature.update(responseData.getEncoded(ASN1Encoding.DER));
+			AlgorithmIdentifier signatureAlgorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+			BasicOCSPResponse basicResponse = new BasicOCSPResponse(responseData, signatureAlgorithm, new DERBitString(signature.sign()), null);
+
+			ResponseBytes responseBytes = new ResponseBytes(OCSPObjectIdentifiers.id_pkix_ocsp_basic, new DEROctetString(basicResponse.getEncoded(ASN1Encoding.DER)));
+			return new OCSPResponse(new OCSPResponseStatus(OCSPResponseStatus.SUCCESSFUL), responseBytes).getEncoded(ASN1Encoding.DER);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Cannot sign OCSP response", e);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot encode OCSP response", e);
+		}
+	}
+
+	private static byte[] sha1(byte[] data) throws GeneralSecurityException {
+		return MessageDigest.getInstance("SHA-1").digest(data);
+	}
+}
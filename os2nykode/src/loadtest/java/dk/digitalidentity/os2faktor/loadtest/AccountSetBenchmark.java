@@ -0,0 +1,136 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import dk.digitalidentity.os2faktor.service.AccountSetCalculator;
+import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+
+/**
+ * Micro benchmark of AccountSetCalculator.addCircleMembers, for a password admin with a number of large, overlapping
+ * circles, compared with the list based merge that resetGet used to do (a contains on the list of prohibited accounts
+ * and a linear scan of the other accounts for every circle member).
+ *
+ * Run with mvn -Ploadtest compile exec:java -Dloadtest.mainClass=dk.digitalidentity.os2faktor.loadtest.AccountSetBenchmark
+ * and --loadtest.circleSize, --loadtest.circles, --loadtest.prohibited and --loadtest.children in -Dexec.args
+ */
+public class AccountSetBenchmark {
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASUREMENT_ITERATIONS = 10;
+
+	public static void main(String[] args) {
+		int circleSize = intOption(args, "loadtest.circleSize", 10000);
+		int circles = intOption(args, "loadtest.circles", 3);
+		int prohibitedCount = intOption(args, "loadtest.prohibited", 500);
+		int children = intOption(args, "loadtest.children", 3);
+
+		// the circles overlap by half, and are spread over twice as many accounts as one circle
+		Random random = new Random(42);
+		List<List<UserDTO>> circleMembers = new ArrayList<>();
+		for (int i = 0; i < circles; i++) {
+			List<UserDTO> members = new ArrayList<>();
+			for (int j = 0; j < circleSize; j++) {
+				members.add(user("Pupil" + random.nextInt(circleSize * 2)));
+			}
+			circleMembers.add(members);
+		}
+
+		List<UserDTO> prohibitedAccounts = new ArrayList<>();
+		for (int i = 0; i < prohibitedCount; i++) {
+			prohibitedAccounts.add(user("PUPIL" + random.nextInt(circleSize * 2)));
+		}
+
+		List<UserDTO> childAccounts = new ArrayList<>();
+		for (int i = 0; i < children; i++) {
+			childAccounts.add(user("pupil" + i));
+		}
+
+		AccountSetCalculator calculator = new AccountSetCalculator();
+		List<List<UserDTO>> prohibitedGroups = new ArrayList<>();
+		prohibitedGroups.add(prohibitedAccounts);
+
+		System.out.println(String.format("%d circles of %d members, %d prohibited accounts, %d children", circles, circleSize, prohibitedCount, children));
+
+		measure("hash sets", () -> {
+			List<UserDTO> others = new ArrayList<>(childAccounts);
+			Set<String> prohibited = calculator.toAccountSet(prohibitedGroups);
+			calculator.addCircleMembers(others, circleMembers, prohibited);
+
+			return others.size();
+		});
+
+		measure("lists", () -> {
+			List<UserDTO> others = new ArrayList<>(childAccounts);
+			List<String> prohibited = new ArrayList<>();
+			for (UserDTO account : prohibitedAccounts) {
+				prohibited.add(account.getSAMAccountName().toLowerCase());
+			}
+
+			for (List<UserDTO> members : circleMembers) {
+				for (UserDTO member : members) {
+					if (!prohibited.contains(member.getSAMAccountName().toLowerCase())) {
+						boolean found = false;
+						for (UserDTO existing : others) {
+							if (existing.getSAMAccountName().equalsIgnoreCase(member.getSAMAccountName())) {
+								found = true;
+								break;
+							}
+						}
+
+						if (!found) {
+							others.add(member);
+						}
+					}
+				}
+			}
+
+			return others.size();
+		});
+	}
+
+	private static void measure(String name, Supplier<Integer> merge) {
+		int accounts = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			accounts = merge.get();
+		}
+
+		long[] times = new long[MEASUREMENT_ITERATIONS];
+		for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			accounts = merge.get();
+			times[i] = System.nanoTime() - start;
+		}
+
+		long total = 0;
+		long best = Long.MAX_VALUE;
+		for (long time : times) {
+			total += time;
+			best = Math.min(best, time);
+		}
+
+		double millis = TimeUnit.MILLISECONDS.toNanos(1);
+		System.out.println(String.format("%-10s %8.2f ms/op average %8.2f ms/op best (%d accounts)", name, total / (double) MEASUREMENT_ITERATIONS / millis, best / millis, accounts));
+	}
+
+	private static UserDTO user(String sAMAccountName) {
+		UserDTO user = new UserDTO();
+		user.setSAMAccountName(sAMAccountName);
+		user.setName(sAMAccountName);
+
+		return user;
+	}
+
+	private static int intOption(String[] args, String name, int defaultValue) {
+		for (String arg : args) {
+			if (arg.startsWith("--" + name + "=")) {
+				return Integer.parseInt(arg.substring(name.length() + 3));
+			}
+		}
+
+		return defaultValue;
+	}
+}
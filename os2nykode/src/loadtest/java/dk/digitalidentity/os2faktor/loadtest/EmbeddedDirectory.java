@@ -0,0 +1,229 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.SearchRequest;
+
+import dk.digitalidentity.os2faktor.loadtest.Population.Account;
+import dk.digitalidentity.os2faktor.loadtest.Population.Group;
+import dk.digitalidentity.os2faktor.loadtest.Population.Person;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An in-memory LDAP server that looks enough like Active Directory for <code>LdapService</code>. The in-memory
+ * server does not know the AD matching rules, so searches using them are rewritten before they are executed:
+ * <ul>
+ * <li>LDAP_MATCHING_RULE_IN_CHAIN on member/memberOf is answered from the transitive memberships, which are
+ * computed when the directory is seeded and stored in the extra attributes nestedMember/nestedMemberOf</li>
+ * <li>LDAP_MATCHING_RULE_BIT_AND on userAccountControl is answered by matching the userAccountControl values
+ * used in the directory</li>
+ * </ul>
+ */
+@Slf4j
+public class EmbeddedDirectory {
+	public static final String BIND_DN = "CN=loadtest," + Population.BASE;
+	public static final String BIND_PASSWORD = "loadtest";
+
+	private static final String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+	private static final String MATCHING_RULE_BIT_AND = "1.2.840.113556.1.4.803";
+	private static final String NESTED_MEMBER = "nestedMember";
+	private static final String NESTED_MEMBER_OF = "nestedMemberOf";
+	private static final int[] USER_ACCOUNT_CONTROL_VALUES = { 512, 514 };
+
+	private final InMemoryDirectoryServer server;
+
+	public EmbeddedDirectory(Population population) throws LDAPException {
+		InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(Population.BASE);
+		config.setSchema(null);
+		config.addAdditionalBindCredentials(BIND_DN, BIND_PASSWORD);
+		config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+		config.addInMemoryOperationInterceptor(new ActiveDirectoryFilterInterceptor());
+
+		server = new InMemoryDirectoryServer(config);
+		server.addEntries(createEntries(population));
+		server.startListening();
+
+		log.info("Embedded directory listening on port " + server.getListenPort() + " with " + server.countEntries() + " entries");
+	}
+
+	public String getUrl() {
+		return "ldap://localhost:" + server.getListenPort();
+	}
+
+	public void shutdown() {
+		server.shutDown(true);
+	}
+
+	private static List<Entry> createEntries(Population population) {
+		List<Entry> entries = new ArrayList<>();
+		entries.add(new Entry(Population.BASE, attribute("objectClass", "top", "domain"), attribute("dc", "loadtest")));
+		entries.add(organizationalUnit(Population.USERS_OU, "Users"));
+		entries.add(organizationalUnit(Population.GROUPS_OU, "Groups"));
+		entries.add(organizationalUnit(Population.PASSWORD_GROUPS_OU, "PasswordGroups"));
+
+		// direct and transitive memberships of every account and group
+		Map<Object, Set<String>> memberOf = new HashMap<>();
+		Map<Object, Set<String>> nestedMemberOf = new HashMap<>();
+		for (Group group : population.getGroups()) {
+			for (Account account : group.getAccounts()) {
+				memberOf.computeIfAbsent(account, k -> new LinkedHashSet<>()).add(group.getDn());
+			}
+			for (Group nested : group.getGroups()) {
+				memberOf.computeIfAbsent(nested, k -> new LinkedHashSet<>()).add(group.getDn());
+			}
+		}
+		for (Object member : memberOf.keySet()) {
+			Set<String> transitive = new LinkedHashSet<>();
+			collectTransitive(member, population, transitive);
+			nestedMemberOf.put(member, transitive);
+		}
+
+		for (Person person : population.getPersons()) {
+			for (Account account : person.getAccounts()) {
+				Entry entry = new Entry(account.getDn());
+				entry.addAttribute("objectClass", "top", "person", "organizationalPerson", "user");
+				entry.addAttribute("cn", account.getSAMAccountName());
+				entry.addAttribute("distinguishedName", account.getDn());
+				entry.addAttribute("sAMAccountName", account.getSAMAccountName());
+				entry.addAttribute("userPrincipalName", account.getSAMAccountName() + "@loadtest.local");
+				entry.addAttribute("displayName", person.getName());
+				entry.addAttribute("employeeID", account.getRegisteredSsn());
+				entry.addAttribute("userAccountControl", "512");
+				if (account.getMobile() != null) {
+					entry.addAttribute("mobile", account.getMobile());
+				}
+				addValues(entry, "memberOf", memberOf.get(account));
+				addValues(entry, NESTED_MEMBER_OF, nestedMemberOf.get(account));
+				entries.add(entry);
+			}
+		}
+
+		Map<String, Set<String>> nestedMembers = new HashMap<>();
+		for (Map.Entry<Object, Set<String>> membership : nestedMemberOf.entrySet()) {
+			String memberDn = (membership.getKey() instanceof Account) ? ((Account) membership.getKey()).getDn() : ((Group) membership.getKey()).getDn();
+			for (String groupDn : membership.getValue()) {
+				nestedMembers.computeIfAbsent(groupDn, k -> new LinkedHashSet<>()).add(memberDn);
+			}
+		}
+
+		for (Group group : population.getGroups()) {
+			Set<String> members = new LinkedHashSet<>();
+			for (Account account : group.getAccounts()) {
+				members.add(account.getDn());
+			}
+			for (Group nested : group.getGroups()) {
+				members.add(nested.getDn());
+			}
+
+			Entry entry = new Entry(group.getDn());
+			entry.addAttribute("objectClass", "top", "group");
+			entry.addAttribute("cn", group.getDn().substring(3, group.getDn().indexOf(',')));
+			entry.addAttribute("distinguishedName", group.getDn());
+			addValues(entry, "member", members);
+			addValues(entry, NESTED_MEMBER, nestedMembers.get(group.getDn()));
+			addValues(entry, "memberOf", memberOf.get(group));
+			addValues(entry, NESTED_MEMBER_OF, nestedMemberOf.get(group));
+			entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	private static void collectTransitive(Object member, Population population, Set<String> result) {
+		for (Group group : population.getGroups()) {
+			if ((group.getAccounts().contains(member) || group.getGroups().contains(member)) && result.add(group.getDn())) {
+				collectTransitive(group, population, result);
+			}
+		}
+	}
+
+	private static Entry organizationalUnit(String dn, String name) {
+		return new Entry(dn, attribute("objectClass", "top", "organizationalUnit"), attribute("ou", name));
+	}
+
+	private static Attribute attribute(String name, String... values) {
+		return new Attribute(name, values);
+	}
+
+	private static void addValues(Entry entry, String name, Collection<String> values) {
+		if (values != null && !values.isEmpty()) {
+			entry.addAttribute(name, values.toArray(new String[0]));
+		}
+	}
+
+	private static class ActiveDirectoryFilterInterceptor extends InMemoryOperationInterceptor {
+
+		@Override
+		public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+			SearchRequest searchRequest = request.getRequest().duplicate();
+			searchRequest.setFilter(rewrite(searchRequest.getFilter()));
+			request.setRequest(searchRequest);
+		}
+
+		private static Filter rewrite(Filter filter) {
+			switch (filter.getFilterType()) {
+				case Filter.FILTER_TYPE_AND:
+					return Filter.createANDFilter(rewrite(filter.getComponents()));
+				case Filter.FILTER_TYPE_OR:
+					return Filter.createORFilter(rewrite(filter.getComponents()));
+				case Filter.FILTER_TYPE_NOT:
+					return Filter.createNOTFilter(rewrite(filter.getNOTComponent()));
+				case Filter.FILTER_TYPE_EXTENSIBLE_MATCH:
+					return rewriteExtensibleMatch(filter);
+				default:
+					return filter;
+			}
+		}
+
+		private static List<Filter> rewrite(Filter[] filters) {
+			List<Filter> result = new ArrayList<>();
+			for (Filter filter : filters) {
+				result.add(rewrite(filter));
+			}
+
+			return result;
+		}
+
+		private static Filter rewriteExtensibleMatch(Filter filter) {
+			String attribute = filter.getAttributeName();
+
+			if (MATCHING_RULE_IN_CHAIN.equals(filter.getMatchingRuleID())) {
+				if ("member".equalsIgnoreCase(attribute)) {
+					return Filter.createEqualityFilter(NESTED_MEMBER, filter.getAssertionValue());
+				}
+				else if ("memberOf".equalsIgnoreCase(attribute)) {
+					return Filter.createEqualityFilter(NESTED_MEMBER_OF, filter.getAssertionValue());
+				}
+			}
+			else if (MATCHING_RULE_BIT_AND.equals(filter.getMatchingRuleID()) && "userAccountControl".equalsIgnoreCase(attribute)) {
+				int mask = Integer.parseInt(filter.getAssertionValue());
+
+				List<Filter> matching = new ArrayList<>();
+				for (int value : USER_ACCOUNT_CONTROL_VALUES) {
+					if ((value & mask) == mask) {
+						matching.add(Filter.createEqualityFilter(attribute, Integer.toString(value)));
+					}
+				}
+
+				return Filter.createORFilter(matching);
+			}
+
+			return filter;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import dk.digitalidentity.os2faktor.loadtest.Population.Account;
+import dk.digitalidentity.os2faktor.loadtest.Population.Person;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs password resets against the application from a number of concurrent virtual users, and records the latency
+ * of each step. Every reset uses a new session, and consists of
+ * <ol>
+ * <li>login - a NemID login of a random person, or an AD login of a random password admin</li>
+ * <li>reset - GET /password/reset, which looks up the accounts the user can change password on</li>
+ * <li>pickuser - GET /password/pickuser</li>
+ * <li>choose - GET /password/reset/{sAMAccountName}</li>
+ * <li>resetPassword - POST /password/reset, which sets the password in AD and sends the SMS</li>
+ * </ol>
+ */
+@Slf4j
+public class LoadDriver {
+	public static final String[] STEPS = { "login", "reset", "pickuser", "choose", "resetPassword" };
+	private static final String NEW_PASSWORD = "Loadtest2019";
+
+	private final String baseUrl;
+	private final Population population;
+	private final List<Account> admins;
+	private final int adminLoginPercentage;
+	private final CloseableHttpClient httpClient;
+	private final Map<String, StepStatistics> statistics = new LinkedHashMap<>();
+
+	/**
+	 * @param adminLoginPercentage percentage of the resets done by password admins, logging in with AD
+	 */
+	public LoadDriver(String baseUrl, Population population, int concurrency, int adminLoginPercentage) {
+		this.baseUrl = baseUrl;
+		this.population = population;
+		this.admins = population.getAdmins();
+		this.adminLoginPercentage = admins.isEmpty() ? 0 : adminLoginPercentage;
+		this.httpClient = HttpClients.custom()
+				.disableRedirectHandling()
+				.setMaxConnTotal(concurrency)
+				.setMaxConnPerRoute(concurrency)
+				.build();
+
+		for (String step : STEPS) {
+			statistics.put(step, new StepStatistics());
+		}
+	}
+
+	/**
+	 * Runs the given number of resets from each virtual user, and waits until they are done
+	 *
+	 * @param record false to run without recording latencies, to warm up the application
+	 */
+	public void run(int concurrency, int resetsPerUser, boolean record) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			List<Future<?>> virtualUsers = new ArrayList<>();
+			for (int i = 0; i < concurrency; i++) {
+				virtualUsers.add(executor.submit(() -> {
+					for (int j = 0; j < resetsPerUser; j++) {
+						reset(record);
+					}
+				}));
+			}
+
+			for (Future<?> virtualUser : virtualUsers) {
+				virtualUser.get();
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public Map<String, StepStatistics> getStatistics() {
+		return statistics;
+	}
+
+	public void close() throws IOException {
+		httpClient.close();
+	}
+
+	private void reset(boolean record) {
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(new BasicCookieStore());
+		Random random = ThreadLocalRandom.current();
+
+		HttpUriRequest login;
+		if (random.nextInt(100) < adminLoginPercentage) {
+			Account admin = admins.get(random.nextInt(admins.size()));
+			login = new HttpGet(baseUrl + "/loadtest/login/ad?sAMAccountName=" + admin.getSAMAccountName());
+		}
+		else {
+			Person person = population.getPersons().get(random.nextInt(population.getPersons().size()));
+			login = new HttpGet(baseUrl + "/loadtest/login/nemid?pid=" + person.getPid());
+		}
+
+		if (!execute("login", login, context, 200, record)) {
+			return;
+		}
+		if (!execute("reset", new HttpGet(baseUrl + "/password/reset"), context, 302, record)) {
+			return;
+		}
+
+		String[] pickUser = new String[1];
+		if (!execute("pickuser", new HttpGet(baseUrl + "/password/pickuser"), context, 200, record, body -> pickUser[0] = body)) {
+			return;
+		}
+
+		String sAMAccountName = findAccountLink(pickUser[0], random);
+		if (sAMAccountName == null) {
+			statistics.get("choose").failed(record);
+			return;
+		}
+		if (!execute("choose", new HttpGet(baseUrl + "/password/reset/" + sAMAccountName), context, 200, record)) {
+			return;
+		}
+
+		HttpPost resetPassword = new HttpPost(baseUrl + "/password/reset");
+		List<NameValuePair> form = Arrays.asList(new BasicNameValuePair("newPassword", NEW_PASSWORD), new BasicNameValuePair("confirmPassword", NEW_PASSWORD));
+		resetPassword.setEntity(new UrlEncodedFormEntity(form, Consts.UTF_8));
+		execute("resetPassword", resetPassword, context, 200, record);
+	}
+
+	private boolean execute(String step, HttpUriRequest request, HttpClientContext context, int expectedStatus, boolean record) {
+		return execute(step, request, context, expectedStatus, record, null);
+	}
+
+	private boolean execute(String step, HttpUriRequest request, HttpClientContext context, int expectedStatus, boolean record, Consumer<String> bodyConsumer) {
+		long start = System.nanoTime();
+		try {
+			HttpResponse response = httpClient.execute(request, context);
+			String body = (response.getEntity() != null) ? EntityUtils.toString(response.getEntity()) : "";
+			long elapsed = System.nanoTime() - start;
+
+			if (response.getStatusLine().getStatusCode() != expectedStatus) {
+				log.debug(step + " returned " + response.getStatusLine().getStatusCode() + " for " + request.getURI());
+				statistics.get(step).failed(record);
+				return false;
+			}
+
+			statistics.get(step).record(elapsed, record);
+			if (bodyConsumer != null) {
+				bodyConsumer.accept(body);
+			}
+
+			return true;
+		}
+		catch (IOException ex) {
+			log.debug(step + " failed for " + request.getURI(), ex);
+			statistics.get(step).failed(record);
+			return false;
+		}
+	}
+
+	// picks one of the accounts linked from the pickuser page
+	private static String findAccountLink(String page, Random random) {
+		List<String> sAMAccountNames = new ArrayList<>();
+		String marker = "/password/reset/";
+		int index = page.indexOf(marker);
+		while (index != -1) {
+			int start = index + marker.length();
+			int end = start;
+			while (end < page.length() && page.charAt(end) != '"' && page.charAt(end) != '\'' && page.charAt(end) != '?') {
+				end++;
+			}
+			if (end > start) {
+				sAMAccountNames.add(page.substring(start, end));
+			}
+			index = page.indexOf(marker, end);
+		}
+
+		return sAMAccountNames.isEmpty() ? null : sAMAccountNames.get(random.nextInt(sAMAccountNames.size()));
+	}
+
+	/**
+	 * Latencies and failures of one step
+	 */
+	public static class StepStatistics {
+		private long[] latencies = new long[1024];
+		private int count;
+		private int failures;
+
+		synchronized void record(long nanos, boolean record) {
+			if (!record) {
+				return;
+			}
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+
+		synchronized void failed(boolean record) {
+			if (record) {
+				failures++;
+			}
+		}
+
+		public synchronized int getCount() {
+			return count;
+		}
+
+		public synchronized int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the latency in milliseconds, or 0 if nothing has been recorded
+		 */
+		public synchronized double getPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * count) - 1;
+
+			return sorted[Math.max(0, Math.min(index, count - 1))] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import dk.digitalidentity.os2faktor.Application;
+import dk.digitalidentity.os2faktor.loadtest.LoadDriver.StepStatistics;
+
+/**
+ * Load test of the password reset flow, without any of the external systems. The harness
+ * <ol>
+ * <li>seeds an embedded directory with a synthetic population of users, groups and nested password circles</li>
+ * <li>starts local stand-ins for the PID, OmFamilie, REST lookup and SMS services</li>
+ * <li>starts the application with the loadtest profile, configured against the directory and the stand-ins</li>
+ * <li>runs password resets at the given concurrency, and reports p50/p99 latency of each step</li>
+ * </ol>
+ *
+ * Options are given as --loadtest.xxx=value, all other arguments are handed to the application, e.g. to give the
+ * SAML configuration with --spring.config.additional-location. Arguments for the application override the settings
+ * made by the harness.
+ */
+public class LoadTestHarness {
+
+	public static void main(String[] args) throws Exception {
+		SimpleCommandLinePropertySource options = new SimpleCommandLinePropertySource(args);
+		int users = intOption(options, "loadtest.users", 1000);
+		int admins = intOption(options, "loadtest.admins", 20);
+		int circles = intOption(options, "loadtest.circles", 5);
+		int circleSize = intOption(options, "loadtest.circleSize", 50);
+		int concurrency = intOption(options, "loadtest.concurrency", 10);
+		int warmup = intOption(options, "loadtest.warmup", 20);
+		int resets = intOption(options, "loadtest.resets", 100);
+		int adminLogins = intOption(options, "loadtest.adminLogins", 10);
+		int stubLatency = intOption(options, "loadtest.stubLatency", 20);
+
+		Population population = new Population(users, admins, circles, circleSize, 42);
+		EmbeddedDirectory directory = new EmbeddedDirectory(population);
+		ServiceStubs stubs = new ServiceStubs(population, stubLatency, Math.max(4, concurrency * 2));
+		ConfigurableApplicationContext context = null;
+
+		try {
+			context = SpringApplication.run(Application.class, applicationArguments(args, directory, stubs));
+			String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+
+			LoadDriver driver = new LoadDriver(baseUrl, population, concurrency, adminLogins);
+			try {
+				driver.run(concurrency, warmup, false);
+
+				long start = System.nanoTime();
+				driver.run(concurrency, resets, true);
+				long elapsed = System.nanoTime() - start;
+
+				report(driver, concurrency, elapsed, stubs);
+			}
+			finally {
+				driver.close();
+			}
+		}
+		finally {
+			if (context != null) {
+				context.close();
+			}
+			stubs.shutdown();
+			directory.shutdown();
+		}
+	}
+
+	private static String[] applicationArguments(String[] args, EmbeddedDirectory directory, ServiceStubs stubs) throws Exception {
+		Map<String, String> settings = new LinkedHashMap<>();
+		settings.put("spring.profiles.active", "loadtest");
+		settings.put("server.port", "0");
+		settings.put("server.ssl.enabled", "false");
+
+		settings.put("ldap.url", directory.getUrl());
+		settings.put("ldap.base", Population.BASE);
+		settings.put("ldap.username", EmbeddedDirectory.BIND_DN);
+		settings.put("ldap.password", EmbeddedDirectory.BIND_PASSWORD);
+		settings.put("ldap.cert.trustall", "false");
+		settings.put("ldap.field.ssn", "employeeID");
+		settings.put("ldap.field.mobile", "mobile");
+		settings.put("ldap.groups.pwdCirclesOU", Population.PASSWORD_GROUPS_OU);
+		settings.put("ldap.groups.canChangeOthersPwd", Population.GROUP_PASSWORD_ADMINS);
+		settings.put("ldap.groups.masterPwdAdmins", Population.GROUP_MASTER_PASSWORD_ADMINS);
+		settings.put("ldap.groups.cannotBeChangedPwdOn", Population.GROUP_CANNOT_BE_CHANGED_PASSWORD_ON);
+		settings.put("ldap.groups.cannotChangePwd", Population.GROUP_CANNOT_CHANGE_PASSWORD);
+		settings.put("ssn.lookup.method", "AD");
+
+		settings.put("pid.url", stubs.getUrl() + "/pid");
+		settings.put("pid.serviceproviderid", "loadtest");
+		settings.put("pid.keystore.location", createPidKeystore("loadtest").getAbsolutePath());
+		settings.put("pid.keystore.password", "loadtest");
+		settings.put("omfamilie.url", stubs.getUrl() + "/omfamilie");
+		settings.put("rest.ssnLookupUrl", stubs.getUrl() + "/rest/ssn?userId={sAMAccountName}");
+		settings.put("rest.sAMAccountNameLookupUrl", stubs.getUrl() + "/rest/accounts?cpr={SSN}");
+		settings.put("sms.gateway.url", stubs.getUrl() + "/sms/");
+
+		settings.put("spring.datasource.url", "jdbc:h2:mem:loadtest;MODE=MySQL;DB_CLOSE_DELAY=-1");
+		settings.put("spring.datasource.driver-class-name", "org.h2.Driver");
+		settings.put("spring.datasource.username", "sa");
+		settings.put("spring.datasource.password", "");
+
+		settings.put("login.enable.unilogin", "false");
+		settings.put("login.enable.idp", "false");
+		settings.put("saml.nonsecured.pages", "/,/login/**,/password/**,/manage/**,/error,/webjars/**,/css/**,/js/**,/img/**,/favicon.ico,/libs/**,/loadtest/**");
+
+		List<String> result = new ArrayList<>();
+		for (Map.Entry<String, String> setting : settings.entrySet()) {
+			if (!isGiven(args, setting.getKey())) {
+				result.add("--" + setting.getKey() + "=" + setting.getValue());
+			}
+		}
+		for (String arg : args) {
+			if (!arg.startsWith("--loadtest.")) {
+				result.add(arg);
+			}
+		}
+
+		return result.toArray(new String[0]);
+	}
+
+	private static boolean isGiven(String[] args, String key) {
+		for (String arg : args) {
+			if (arg.startsWith("--" + key + "=")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	// the PID service client always presents a client certificate, so it needs a keystore even against the stand-in
+	@SuppressWarnings("deprecation")
+	private static File createPidKeystore(String password) throws Exception {
+		Security.addProvider(new BouncyCastleProvider());
+
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+
+		X500Principal subject = new X500Principal("CN=OS2nykode load test");
+		X509V3CertificateGenerator certificateGenerator = new X509V3CertificateGenerator();
+		certificateGenerator.setSerialNumber(BigInteger.valueOf(System.currentTimeMillis()));
+		certificateGenerator.setSubjectDN(subject);
+		certificateGenerator.setIssuerDN(subject);
+		certificateGenerator.setPublicKey(keyPair.getPublic());
+		certificateGenerator.setNotBefore(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+		certificateGenerator.setNotAfter(new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1)));
+		certificateGenerator.setSignatureAlgorithm("SHA256WithRSAEncryption");
+		X509Certificate certificate = certificateGenerator.generate(keyPair.getPrivate(), "BC");
+
+		KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("loadtest", keyPair.getPrivate(), password.toCharArray(), new Certificate[] { certificate });
+
+		File file = File.createTempFile("loadtest-pid", ".pfx");
+		file.deleteOnExit();
+		try (OutputStream out = new FileOutputStream(file)) {
+			keyStore.store(out, password.toCharArray());
+		}
+
+		return file;
+	}
+
+	private static void report(LoadDriver driver, int concurrency, long elapsedNanos, ServiceStubs stubs) {
+		double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+		int completed = driver.getStatistics().get("resetPassword").getCount();
+
+		System.out.println();
+		System.out.println(String.format("%d virtual users, %d password resets in %.1f s (%.1f resets/s), %d SMS sent", concurrency, completed, seconds, completed / seconds, stubs.getSmsCount()));
+		System.out.println();
+		System.out.println(String.format("%-15s %8s %8s %10s %10s %10s", "step", "count", "failed", "p50 (ms)", "p99 (ms)", "max (ms)"));
+		for (Map.Entry<String, StepStatistics> entry : driver.getStatistics().entrySet()) {
+			StepStatistics statistics = entry.getValue();
+			System.out.println(String.format("%-15s %8d %8d %10.1f %10.1f %10.1f", entry.getKey(), statistics.getCount(), statistics.getFailures(), statistics.getPercentile(50), statistics.getPercentile(99), statistics.getPercentile(100)));
+		}
+	}
+
+	private static int intOption(SimpleCommandLinePropertySource options, String name, int defaultValue) {
+		String value = options.getProperty(name);
+
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+}
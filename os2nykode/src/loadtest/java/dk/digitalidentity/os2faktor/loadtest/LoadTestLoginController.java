@@ -0,0 +1,58 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import dk.digitalidentity.nemid.Pid2Cpr;
+import dk.digitalidentity.os2faktor.config.Constants;
+import dk.digitalidentity.os2faktor.service.LdapService;
+
+/**
+ * Logs in a load test user without NemID or an identity provider, leaving the session in the same state as a real
+ * login does. Only the verification of the NemID signature is skipped (it is measured by the ooapi benchmarks) - the
+ * PID is still looked up through the PID service, and the SSN of an AD login is still looked up in AD.
+ *
+ * This class is only compiled with the loadtest Maven profile, and only active with the loadtest Spring profile.
+ */
+@Profile("loadtest")
+@RestController
+public class LoadTestLoginController {
+
+	@Autowired
+	private Pid2Cpr pid2Cpr;
+
+	@Autowired
+	private LdapService ldapService;
+
+	@GetMapping("/loadtest/login/nemid")
+	public ResponseEntity<String> loginNemId(@RequestParam("pid") String pid, HttpServletRequest request) {
+		String cpr = pid2Cpr.lookup(pid);
+		if (cpr == null || cpr.length() == 0) {
+			return new ResponseEntity<>("Unable to get CPR for pid: " + pid, HttpStatus.FORBIDDEN);
+		}
+
+		request.getSession().setAttribute(Constants.SESSION_SSN, cpr);
+
+		return new ResponseEntity<>("OK", HttpStatus.OK);
+	}
+
+	@GetMapping("/loadtest/login/ad")
+	public ResponseEntity<String> loginAd(@RequestParam("sAMAccountName") String sAMAccountName, HttpServletRequest request) {
+		String ssn = ldapService.getSsn(sAMAccountName);
+		if (ssn == null) {
+			return new ResponseEntity<>("No SSN for " + sAMAccountName, HttpStatus.FORBIDDEN);
+		}
+
+		request.getSession().setAttribute(Constants.SESSION_SSN, ssn);
+		request.getSession().setAttribute(Constants.SESSION_CURRENTLY_LOGGEDIN_USER, sAMAccountName);
+
+		return new ResponseEntity<>("OK", HttpStatus.OK);
+	}
+}
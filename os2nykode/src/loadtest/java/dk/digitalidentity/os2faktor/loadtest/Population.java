@@ -0,0 +1,168 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import lombok.Getter;
+
+/**
+ * The synthetic persons and AD accounts of a load test. The embedded directory and the service stubs are both
+ * seeded from the same population, so the PID, CPR and AD lookups agree with each other.
+ *
+ * Every person has an AD account, some persons have a second account (registered with a dash in the SSN, as
+ * some municipalities do), some persons have children with their own accounts, and the first persons of the
+ * population are password admins with a number of password circles each.
+ */
+@Getter
+public class Population {
+	public static final String BASE = "DC=loadtest,DC=local";
+	public static final String USERS_OU = "OU=Users," + BASE;
+	public static final String GROUPS_OU = "OU=Groups," + BASE;
+	public static final String PASSWORD_GROUPS_OU = "OU=PasswordGroups," + BASE;
+
+	public static final String GROUP_PASSWORD_ADMINS = "CN=PwdAdmins," + PASSWORD_GROUPS_OU;
+	public static final String GROUP_MASTER_PASSWORD_ADMINS = "CN=MasterPwdAdmins," + PASSWORD_GROUPS_OU;
+	public static final String GROUP_CANNOT_BE_CHANGED_PASSWORD_ON = "CN=OthersCannotChangePwd," + PASSWORD_GROUPS_OU;
+	public static final String GROUP_CANNOT_CHANGE_PASSWORD = "CN=CannotChangePwd," + PASSWORD_GROUPS_OU;
+
+	private final List<Person> persons = new ArrayList<>();
+	private final Map<String, Person> personsBySsn = new HashMap<>();
+	private final Map<String, Person> personsByPid = new HashMap<>();
+	private final List<Group> groups = new ArrayList<>();
+
+	/**
+	 * @param size number of persons
+	 * @param admins number of persons that are password admins
+	 * @param circlesPerAdmin number of password circles each admin is a member of
+	 * @param circleSize number of accounts in each password circle, half of them through a nested group
+	 */
+	public Population(int size, int admins, int circlesPerAdmin, int circleSize, long seed) {
+		Random random = new Random(seed);
+
+		for (int i = 0; i < size; i++) {
+			String ssn = String.format("%02d%02d%02d%04d", 1 + i % 28, 1 + (i / 28) % 12, 50 + (i / 336) % 50, i % 10000);
+			Person person = new Person(ssn, String.format("9208-2002-2-%012d", i), "Person " + i);
+
+			person.getAccounts().add(new Account(String.format("lt%06d", i), person, ssn, String.format("2%07d", i)));
+			if (random.nextInt(10) == 0) {
+				String ssnWithDash = ssn.substring(0, 6) + "-" + ssn.substring(6);
+				person.getAccounts().add(new Account(String.format("lt%06dx", i), person, ssnWithDash, null));
+			}
+
+			persons.add(person);
+			personsBySsn.put(ssn, person);
+			personsByPid.put(person.getPid(), person);
+		}
+
+		// every fifth person has one or two children among the other persons
+		for (int i = 0; i < size; i += 5) {
+			int children = 1 + random.nextInt(2);
+			for (int j = 1; j <= children && i + j < size; j++) {
+				persons.get(i).getChildren().add(persons.get(i + j));
+			}
+		}
+
+		Group passwordAdmins = new Group(GROUP_PASSWORD_ADMINS);
+		Group masterPasswordAdmins = new Group(GROUP_MASTER_PASSWORD_ADMINS);
+		Group cannotBeChangedPasswordOn = new Group(GROUP_CANNOT_BE_CHANGED_PASSWORD_ON);
+		Group cannotChangePassword = new Group(GROUP_CANNOT_CHANGE_PASSWORD);
+		groups.add(passwordAdmins);
+		groups.add(masterPasswordAdmins);
+		groups.add(cannotBeChangedPasswordOn);
+		groups.add(cannotChangePassword);
+
+		for (int i = 0; i < admins && i < size; i++) {
+			Account admin = persons.get(i).getAccounts().get(0);
+			admin.setAdmin(true);
+			passwordAdmins.getAccounts().add(admin);
+
+			for (int c = 0; c < circlesPerAdmin; c++) {
+				String name = "Circle-" + i + "-" + c;
+				Group circle = new Group("CN=" + name + "," + PASSWORD_GROUPS_OU);
+				Group nested = new Group("CN=" + name + "-Nested," + GROUPS_OU);
+				circle.getAccounts().add(admin);
+				circle.getGroups().add(nested);
+
+				for (int m = 0; m < circleSize; m++) {
+					Account member = persons.get(random.nextInt(size)).getAccounts().get(0);
+					(m % 2 == 0 ? circle : nested).getAccounts().add(member);
+				}
+
+				groups.add(circle);
+				groups.add(nested);
+			}
+		}
+
+		// a few accounts that are protected, so the filtering of the circles has something to remove
+		for (int i = 0; i < size; i += 97) {
+			cannotBeChangedPasswordOn.getAccounts().add(persons.get(i).getAccounts().get(0));
+		}
+	}
+
+	public List<Account> getAdmins() {
+		List<Account> result = new ArrayList<>();
+		for (Person person : persons) {
+			for (Account account : person.getAccounts()) {
+				if (account.isAdmin()) {
+					result.add(account);
+				}
+			}
+		}
+
+		return Collections.unmodifiableList(result);
+	}
+
+	@Getter
+	public static class Person {
+		private final String ssn;
+		private final String pid;
+		private final String name;
+		private final List<Account> accounts = new ArrayList<>();
+		private final List<Person> children = new ArrayList<>();
+
+		Person(String ssn, String pid, String name) {
+			this.ssn = ssn;
+			this.pid = pid;
+			this.name = name;
+		}
+	}
+
+	@Getter
+	public static class Account {
+		private final String sAMAccountName;
+		private final Person person;
+		private final String registeredSsn;
+		private final String mobile;
+		private boolean admin;
+
+		Account(String sAMAccountName, Person person, String registeredSsn, String mobile) {
+			this.sAMAccountName = sAMAccountName;
+			this.person = person;
+			this.registeredSsn = registeredSsn;
+			this.mobile = mobile;
+		}
+
+		public String getDn() {
+			return "CN=" + sAMAccountName + "," + USERS_OU;
+		}
+
+		void setAdmin(boolean admin) {
+			this.admin = admin;
+		}
+	}
+
+	@Getter
+	public static class Group {
+		private final String dn;
+		private final List<Account> accounts = new ArrayList<>();
+		private final List<Group> groups = new ArrayList<>();
+
+		Group(String dn) {
+			this.dn = dn;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package dk.digitalidentity.os2faktor.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dk.digitalidentity.os2faktor.loadtest.Population.Account;
+import dk.digitalidentity.os2faktor.loadtest.Population.Person;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local HTTP stand-ins for the external services used during a password reset, answering from the population:
+ * <ul>
+ * <li>/pid - the DanID PID service (pid.url)</li>
+ * <li>/omfamilie - the OmFamilie CPR integration (omfamilie.url)</li>
+ * <li>/rest/ssn and /rest/accounts - the REST lookup service (rest.ssnLookupUrl and rest.sAMAccountNameLookupUrl)</li>
+ * <li>/sms - the SMS gateway (sms.gateway.url)</li>
+ * </ul>
+ * Every response is delayed by a fixed latency, to simulate the network round trip to the real services.
+ */
+@Slf4j
+public class ServiceStubs {
+	private static final Pattern PID_PATTERN = Pattern.compile("<pid>([^<]*)</pid>");
+
+	private final Population population;
+	private final long latency;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final Map<String, Account> accounts = new HashMap<>();
+	private final AtomicLong smsCount = new AtomicLong();
+	private final ExecutorService executor;
+	private final HttpServer server;
+
+	/**
+	 * @param latency milliseconds to wait before answering a request
+	 * @param threads number of threads answering requests
+	 */
+	public ServiceStubs(Population population, long latency, int threads) throws IOException {
+		this.population = population;
+		this.latency = latency;
+
+		for (Person person : population.getPersons()) {
+			for (Account account : person.getAccounts()) {
+				accounts.put(account.getSAMAccountName(), account);
+			}
+		}
+
+		executor = Executors.newFixedThreadPool(threads);
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/pid", this::pid);
+		server.createContext("/omfamilie", this::omFamilie);
+		server.createContext("/rest/ssn", this::restSsn);
+		server.createContext("/rest/accounts", this::restAccounts);
+		server.createContext("/sms", this::sms);
+		server.start();
+
+		log.info("Service stubs listening on " + getUrl());
+	}
+
+	public String getUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public long getSmsCount() {
+		return smsCount.get();
+	}
+
+	public void shutdown() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void pid(HttpExchange exchange) throws IOException {
+		Matcher matcher = PID_PATTERN.matcher(new String(readBody(exchange), StandardCharsets.UTF_8));
+		String pid = matcher.find() ? matcher.group(1) : null;
+		Person person = (pid != null) ? population.getPersonsByPid().get(pid) : null;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><method name=\"pidCprRequest\" version=\"1.0\"><response>");
+		if (person != null) {
+			sb.append("<status statusCode=\"0\"/><pid>").append(pid).append("</pid><cpr>").append(person.getSsn()).append("</cpr>");
+		}
+		else {
+			sb.append("<status statusCode=\"1\"><statusText>Unknown PID</statusText></status>");
+		}
+		sb.append("</response></method>");
+
+		respond(exchange, 200, "text/xml", sb.toString());
+	}
+
+	private void omFamilie(HttpExchange exchange) throws IOException {
+		Person person = population.getPersonsBySsn().get(queryParameter(exchange, "cpr"));
+
+		List<Map<String, String>> children = new ArrayList<>();
+		if (person != null) {
+			for (Person child : person.getChildren()) {
+				Map<String, String> dto = new HashMap<>();
+				dto.put("name", child.getName());
+				dto.put("cpr", child.getSsn());
+				children.add(dto);
+			}
+		}
+
+		respond(exchange, 200, "application/json", objectMapper.writeValueAsString(children));
+	}
+
+	private void restSsn(HttpExchange exchange) throws IOException {
+		Account account = accounts.get(queryParameter(exchange, "userId"));
+		if (account == null) {
+			respond(exchange, 404, "application/json", "{}");
+			return;
+		}
+
+		Map<String, String> body = new HashMap<>();
+		body.put("result", account.getRegisteredSsn());
+		respond(exchange, 200, "application/json", objectMapper.writeValueAsString(body));
+	}
+
+	private void restAccounts(HttpExchange exchange) throws IOException {
+		Person person = population.getPersonsBySsn().get(queryParameter(exchange, "cpr"));
+
+		Map<String, Object> body = new HashMap<>();
+		List<String> sAMAccountNames = new ArrayList<>();
+		if (person != null) {
+			body.put("name", person.getName());
+			for (Account account : person.getAccounts()) {
+				sAMAccountNames.add(account.getSAMAccountName());
+			}
+		}
+		body.put("accounts", sAMAccountNames);
+
+		respond(exchange, 200, "application/json", objectMapper.writeValueAsString(body));
+	}
+
+	private void sms(HttpExchange exchange) throws IOException {
+		readBody(exchange);
+		smsCount.incrementAndGet();
+
+		respond(exchange, 200, "text/plain", "OK");
+	}
+
+	private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + ";charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try (InputStream in = exchange.getRequestBody()) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				result.write(buffer, 0, read);
+			}
+		}
+
+		return result.toByteArray();
+	}
+
+	private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+
+		for (String parameter : query.split("&")) {
+			int index = parameter.indexOf('=');
+			if (index > 0 && parameter.substring(0, index).equals(name)) {
+				return URLDecoder.decode(parameter.substring(index + 1), "UTF-8");
+			}
+		}
+
+		return null;
+	}
+}
@@ -6,4 +6,5 @@ public class Constants {
 	public static final String SESSION_SAMACCOUNTNAMES = "SESSION_SAMACCOUNTNAMES";
 	public static final String SESSION_OTHERSAMACCOUNTNAMES = "SESSION_OTHERSAMACCOUNTNAMES";
 	public static final String SESSION_CURRENTLY_LOGGEDIN_USER = "SESSION_CURRENTLY_LOGGEDIN_USER";
+	public static final String SESSION_LOOKUP_INCOMPLETE = "SESSION_LOOKUP_INCOMPLETE";
 }
@@ -1,32 +1,118 @@
 package dk.digitalidentity.os2faktor.config;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.LdapContextSource;
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.validation.DefaultDirContextValidator;
 
 @Configuration
 public class LdapConfiguration {
 
+	// one or more domain controllers, separated by spaces
+	@Value("${ldap.url}")
+	private String ldapUrl;
+
+	@Value("${ldap.base}")
+	private String ldapBase;
+
+	@Value("${ldap.username}")
+	private String ldapUsername;
+
+	@Value("${ldap.password}")
+	private String ldapPassword;
+
+	// ordered: always use the first domain controller that answers, roundrobin: spread new connections over all of them
+	@Value("${ldap.failover:ordered}")
+	private String failover;
+
+	@Value("${ldap.timeout.connect:5000}")
+	private int connectTimeout;
+
+	@Value("${ldap.timeout.read:30000}")
+	private int readTimeout;
+
+	@Value("${ldap.pool.enabled:true}")
+	private boolean poolEnabled;
+
+	// pool limits are per connection type (read-only and read-write)
+	@Value("${ldap.pool.maxActive:20}")
+	private int poolMaxActive;
+
+	@Value("${ldap.pool.maxIdle:8}")
+	private int poolMaxIdle;
+
+	@Value("${ldap.pool.minIdle:0}")
+	private int poolMinIdle;
+
+	@Value("${ldap.pool.maxWait:5000}")
+	private long poolMaxWait;
+
+	@Value("${ldap.pool.evictionInterval:60000}")
+	private long poolEvictionInterval;
+
+	@Value("${ldap.pool.minEvictableIdleTime:300000}")
+	private long poolMinEvictableIdleTime;
+
 	@Bean
-	public ContextSource contextSource(
-			@Value("${ldap.url}") String ldapUrl,
-			@Value("${ldap.base}") String ldapBase,
-			@Value("${ldap.username}") String ldapUsername,
-			@Value("${ldap.password}") String ldapPassword) {
+	@Primary
+	public ContextSource contextSource() {
+		LdapContextSource contextSource = createContextSource(ldapBase);
 
-		LdapContextSource contextSource = new LdapContextSource();
+		if (!poolEnabled) {
+			return contextSource;
+		}
 
-		contextSource.setUrl(ldapUrl);
-		contextSource.setBase(ldapBase);
-		contextSource.setUserDn(ldapUsername);
-		contextSource.setPassword(ldapPassword);
+		contextSource.setPooled(false);
+		contextSource.afterPropertiesSet();
+
+		// idle connections are validated by the evictor, so connections to a domain controller that went away are
+		// replaced by new ones, which fail over to the other domain controllers. They are not validated when borrowed,
+		// which would cost a round trip to AD on every operation, so until the evictor has run (every
+		// ldap.pool.evictionInterval milliseconds) the operations that borrow a connection to a dead domain controller
+		// fail. Each run validates all the idle connections, and ad.ldap.pool.evicted counts the ones it destroys
+		PoolConfig poolConfig = new PoolConfig();
+		poolConfig.setMaxTotalPerKey(poolMaxActive);
+		poolConfig.setMaxIdlePerKey(poolMaxIdle);
+		poolConfig.setMinIdlePerKey(poolMinIdle);
+		poolConfig.setMaxWaitMillis(poolMaxWait);
+		poolConfig.setTestWhileIdle(true);
+		poolConfig.setTimeBetweenEvictionRunsMillis(poolEvictionInterval);
+		poolConfig.setNumTestsPerEvictionRun(-1);
+		poolConfig.setMinEvictableIdleTimeMillis(poolMinEvictableIdleTime);
+		poolConfig.setJmxEnabled(false);
+
+		MeasuredPooledContextSource pooledContextSource = new MeasuredPooledContextSource(poolConfig);
+		pooledContextSource.setContextSource(contextSource);
+		pooledContextSource.setDirContextValidator(new DefaultDirContextValidator());
+
+		return pooledContextSource;
+	}
+
+	// connections of their own, for work that has to stay on one connection (and domain controller). Connections of
+	// the pool above cannot be used for this, as they do not take request controls (e.g. for paged searches), so these
+	// are pooled by JNDI instead, which hands out the connection itself. They are opened at the root, so the rootDSE can
+	// be read on them, and searches must give the full DN of their base
+	@Bean
+	public LdapContextSource directContextSource() {
+		// JNDI reads these once, when the first pooled connection is opened, and only pools plain connections by default
+		setDefaultSystemProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain ssl");
+		setDefaultSystemProperty("com.sun.jndi.ldap.connect.pool.maxsize", Integer.toString(poolMaxActive));
+		setDefaultSystemProperty("com.sun.jndi.ldap.connect.pool.timeout", Long.toString(poolMinEvictableIdleTime));
+
+		LdapContextSource contextSource = createContextSource("");
+		contextSource.setPooled(poolEnabled);
 
 		return contextSource;
 	}
-	
+
 	@Bean
 	public LdapTemplate ldapTemplate(ContextSource contextSource) {
 		LdapTemplate ldapTemplate = new LdapTemplate(contextSource);
@@ -34,4 +120,28 @@ public class LdapConfiguration {
 
 		return ldapTemplate;
 	}
+
+	private LdapContextSource createContextSource(String base) {
+		LdapContextSource contextSource = "roundrobin".equalsIgnoreCase(failover) ? new RoundRobinLdapContextSource() : new LdapContextSource();
+
+		contextSource.setUrls(ldapUrl.trim().split("\\s+"));
+		contextSource.setBase(base);
+		contextSource.setUserDn(ldapUsername);
+		contextSource.setPassword(ldapPassword);
+
+		// a domain controller that does not answer should fail fast, so the next one can be tried
+		Map<String, Object> environment = new HashMap<>();
+		environment.put("com.sun.jndi.ldap.connect.timeout", Integer.toString(connectTimeout));
+		environment.put("com.sun.jndi.ldap.read.timeout", Integer.toString(readTimeout));
+		contextSource.setBaseEnvironmentProperties(environment);
+
+		return contextSource;
+	}
+
+	// settings given on the command line (-D) are kept
+	private static void setDefaultSystemProperty(String key, String value) {
+		if (System.getProperty(key) == null) {
+			System.setProperty(key, value);
+		}
+	}
 }
@@ -0,0 +1,38 @@
+package dk.digitalidentity.os2faktor.config;
+
+import org.springframework.ldap.pool2.factory.PoolConfig;
+import org.springframework.ldap.pool2.factory.PooledContextSource;
+
+/**
+ * PooledContextSource that exposes the statistics of the underlying pool, for the ad.ldap.pool metrics
+ */
+public class MeasuredPooledContextSource extends PooledContextSource {
+
+	public MeasuredPooledContextSource(PoolConfig poolConfig) {
+		super(poolConfig);
+	}
+
+	public long getMeanBorrowWaitTimeMillis() {
+		return keyedObjectPool.getMeanBorrowWaitTimeMillis();
+	}
+
+	public long getMaxBorrowWaitTimeMillis() {
+		return keyedObjectPool.getMaxBorrowWaitTimeMillis();
+	}
+
+	public long getBorrowedCount() {
+		return keyedObjectPool.getBorrowedCount();
+	}
+
+	public long getCreatedCount() {
+		return keyedObjectPool.getCreatedCount();
+	}
+
+	public long getDestroyedCount() {
+		return keyedObjectPool.getDestroyedCount();
+	}
+
+	public long getDestroyedByEvictorCount() {
+		return keyedObjectPool.getDestroyedByEvictorCount();
+	}
+}
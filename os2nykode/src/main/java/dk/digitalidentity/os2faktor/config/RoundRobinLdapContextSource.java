@@ -0,0 +1,45 @@
+package dk.digitalidentity.os2faktor.config;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+import org.springframework.ldap.core.support.LdapContextSource;
+
+/**
+ * LdapContextSource that spreads new connections over all the configured domain controllers, by starting each
+ * connection at the next URL in the list. JNDI still fails over to the following URLs if a domain controller does not
+ * answer within the connect timeout.
+ */
+public class RoundRobinLdapContextSource extends LdapContextSource {
+	private final AtomicInteger next = new AtomicInteger();
+
+	@Override
+	protected DirContext getDirContextInstance(Hashtable<String, Object> environment) throws NamingException {
+		Object providerUrl = environment.get(Context.PROVIDER_URL);
+
+		if (providerUrl instanceof String) {
+			String[] urls = ((String) providerUrl).split(" ");
+
+			if (urls.length > 1) {
+				int start = Math.floorMod(next.getAndIncrement(), urls.length);
+
+				StringBuilder rotated = new StringBuilder();
+				for (int i = 0; i < urls.length; i++) {
+					if (i > 0) {
+						rotated.append(' ');
+					}
+					rotated.append(urls[(start + i) % urls.length]);
+				}
+
+				environment = new Hashtable<>(environment);
+				environment.put(Context.PROVIDER_URL, rotated.toString());
+			}
+		}
+
+		return super.getDirContextInstance(environment);
+	}
+}
@@ -5,12 +5,10 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ldap.OperationNotSupportedException;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -29,12 +27,12 @@ import dk.digitalidentity.os2faktor.controller.model.NewPasswordForm;
 import dk.digitalidentity.os2faktor.controller.validators.PasswordValidator;
 import dk.digitalidentity.os2faktor.log.AuditLogService;
 import dk.digitalidentity.os2faktor.security.SecurityUtil;
-import dk.digitalidentity.os2faktor.service.ChildrenCprService;
+import dk.digitalidentity.os2faktor.service.AccountLookupService;
 import dk.digitalidentity.os2faktor.service.LdapService;
 import dk.digitalidentity.os2faktor.service.PasswordPolicyService;
-import dk.digitalidentity.os2faktor.service.RESTService;
-import dk.digitalidentity.os2faktor.service.SQLService;
 import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+import dk.digitalidentity.os2faktor.service.model.AccountLookupResult;
+import dk.digitalidentity.os2faktor.service.model.AccountLookupResult.Status;
 import dk.digitalidentity.os2faktor.service.model.UsernameAndPassword;
 import dk.digitalidentity.os2faktor.util.Utilities;
 import lombok.extern.slf4j.Slf4j;
@@ -45,12 +43,6 @@ public class PasswordResetController {
 
 	@Autowired
 	private LdapService ldapService;
-	
-	@Autowired
-	private SQLService sqlService;
-
-	@Autowired
-	private RESTService restService;
 
 	@Autowired
 	private PasswordValidator passwordValidator;
@@ -59,46 +51,16 @@ public class PasswordResetController {
 	private PasswordPolicyService passwordPolicyService;
 
 	@Autowired
-	private ChildrenCprService childrenCprService;
+	private AccountLookupService accountLookupService;
 
 	@Autowired
 	private AuditLogService auditLogService;
 	
-	@Value("${ldap.base}")
-	private String ldapBase;
-
-	@Value("${ldap.groups.cannotChangePwd:}")
-	private String groupCannotChangePwd;
-
-	@Value("${ldap.groups.cannotBeChangedPwdOn:}")
-	private String groupCannotBeChangedPwdOn;
-	
-	@Value("${ldap.groups.canChangeOthersPwd:}")
-	private String groupPasswordAdmins;
-	
-	@Value("${ldap.groups.masterPwdAdmins:}")
-	private String groupPasswordMasterAdmins;
-	
-	@Value("${ldap.groups.pwdCirclesOU:}")
-	private String passwordGroupsOU;
-
-	@Value("${ssn.lookup.method:AD}")
-	private String ssnLookupMethod;
-
 	@InitBinder("newPasswordForm")
 	public void initBinder(WebDataBinder binder) {
 		binder.addValidators(passwordValidator);
 	}
 	
-	@PostConstruct
-	public void passwordGroupOUDNFix() {
-		if (!StringUtils.isEmpty(passwordGroupsOU)) {
-			if (!passwordGroupsOU.toLowerCase().endsWith(ldapBase.toLowerCase())) {
-				passwordGroupsOU = passwordGroupsOU + "," + ldapBase;
-			}
-		}
-	}
-	
 	@GetMapping("/password/reset")
 	public String resetGet(Model model, HttpServletRequest request) throws Exception {
 		if (isLoggedInAndProcessed(request)) {
@@ -112,41 +74,26 @@ public class PasswordResetController {
 			return "redirect:/failed?cause=NoSSN";
 		}
 
-		// fetch ALL sAMAccountNames with that SSN associated with it
-		List<UserDTO> sAMAccountNames = new ArrayList<UserDTO>();
-		if ("AD".equals(ssnLookupMethod)) {
-			sAMAccountNames = ldapService.getSAMAccountNames(ssn);
-		}
-		else if ("SQL".equals(ssnLookupMethod)) {
-			sAMAccountNames = sqlService.getSAMAccountNames(ssn);
-		}
-		else if ("REST".equals(ssnLookupMethod)) {
-			sAMAccountNames = restService.getSAMAccountNames(ssn);
-		}
-
-		// check if any of the users accounts are prohibited from changing password
-		try {
-			for (UserDTO userDTO : sAMAccountNames) {
-				String sAMAccountName = userDTO.getSAMAccountName();
+		// fetch ALL sAMAccountNames with that SSN associated with it, and all the accounts the user can change password on
+		String loggedInADUser = (String) request.getSession().getAttribute(Constants.SESSION_CURRENTLY_LOGGEDIN_USER);
+		AccountLookupResult lookup = accountLookupService.lookup(ssn, loggedInADUser);
 
-				if (!isAllowedToChangePassword(sAMAccountName)) {
-					return "password/nopasswordchange";
-				}
-			}
-		}
-		catch (Exception ex) {
-			log.error("Failed to validate if user can change password:" + Utilities.maskSsn(ssn), ex);
+		if (lookup.getStatus() == Status.FAILED) {
+			log.error("Failed to look up accounts for user: " + Utilities.maskSsn(ssn));
 
 			return "password/error";
 		}
-		
+		else if (lookup.getStatus() == Status.NOT_ALLOWED) {
+			return "password/nopasswordchange";
+		}
+
+		List<UserDTO> sAMAccountNames = lookup.getAccounts();
+		List<UserDTO> othersDTOs = lookup.getOthers();
+
 		// set the currently logged in user field in the session if needed (depending on how they logged in,
 		// it might not be set, and we need it for logging purposes - for those without an AD account, it gets
 		// set to their SSN, masked though)
-		boolean loggedInWithAD = true;
-		if (request.getSession().getAttribute(Constants.SESSION_CURRENTLY_LOGGEDIN_USER) == null) {
-			loggedInWithAD = false;
-
+		if (loggedInADUser == null) {
 			if (sAMAccountNames.size() > 0) {
 				request.getSession().setAttribute(Constants.SESSION_CURRENTLY_LOGGEDIN_USER, sAMAccountNames.get(0).getSAMAccountName());
 			}
@@ -155,97 +102,9 @@ public class PasswordResetController {
 			}
 		}
 
-		// find all children for this user (they might not be in AD though)
-		List<UserDTO> others = childrenCprService.getChildren(ssn);
-		List<UserDTO> othersDTOs = new ArrayList<UserDTO>();
-
-		// see if the children are in AD
-		for (UserDTO user : others) {
-			List<UserDTO> childrenAccounts = ldapService.getSAMAccountNames(user.getCpr());
-
-			for (UserDTO account : childrenAccounts) {
-				othersDTOs.add(account);
-			}
-		}
-
-		// if the user logged in using AD, see if they can change password on any other user
-		if (loggedInWithAD && !StringUtils.isEmpty(passwordGroupsOU) && (!StringUtils.isEmpty(groupPasswordAdmins) || !StringUtils.isEmpty(groupPasswordMasterAdmins))) {
-			// find the groups that this user is a member of
-			List<String> groups = ldapService.getGroups((String) request.getSession().getAttribute(Constants.SESSION_CURRENTLY_LOGGEDIN_USER));
+		// some of the other accounts could not be looked up, let the user know that the list might be incomplete
+		request.getSession().setAttribute(Constants.SESSION_LOOKUP_INCOMPLETE, lookup.getStatus() == Status.PARTIAL);
 
-			boolean canChangePasswordMasterAdmin = groups.stream().anyMatch(g -> g.equalsIgnoreCase(groupPasswordMasterAdmins));
-			boolean canChangePasswordAdmin = canChangePasswordMasterAdmin || groups.stream().anyMatch(g -> g.equalsIgnoreCase(groupPasswordAdmins));
-			
-			// who is the user allowed to change password on?
-			if (canChangePasswordAdmin) {
-	
-				// filter the users list of group memberships, so we only get the "password-circles" that the user is a member of
-				if (!StringUtils.isEmpty(groupCannotBeChangedPwdOn)) {
-					groups.removeIf(c -> c.toLowerCase().equals(groupCannotBeChangedPwdOn.toLowerCase()));
-				}
-				if (!StringUtils.isEmpty(groupCannotChangePwd)) {
-					groups.removeIf(c -> c.toLowerCase().equals(groupCannotChangePwd.toLowerCase()));
-				}
-				if (!StringUtils.isEmpty(groupPasswordMasterAdmins)) {
-					groups.removeIf(c -> c.toLowerCase().equals(groupPasswordMasterAdmins.toLowerCase()));
-				}
-				if (!StringUtils.isEmpty(groupPasswordMasterAdmins)) {
-					groups.removeIf(g -> !g.toLowerCase().contains(passwordGroupsOU.toLowerCase()));
-				}
-				
-				groups.removeIf(g -> !g.toLowerCase().contains(passwordGroupsOU.toLowerCase()));
-
-				if (groups.size() > 0) {
-					List<String> pwdResetProhibited = new ArrayList<>();
-	
-					// if the user is not a master-admin, do not allow changing password on admins
-					if (!canChangePasswordMasterAdmin) {
-						pwdResetProhibited.addAll(ldapService.getMembers(groupPasswordAdmins.toLowerCase())
-								.stream()
-								.map(u -> u.getSAMAccountName().toLowerCase())
-								.collect(Collectors.toList()));
-					}
-					
-					// no-one can change password on master-admins
-					if (!StringUtils.isEmpty(groupPasswordMasterAdmins)) {
-						pwdResetProhibited.addAll(ldapService.getMembers(groupPasswordMasterAdmins.toLowerCase())
-								.stream()
-								.map(u -> u.getSAMAccountName().toLowerCase())
-								.collect(Collectors.toList()));
-					}
-	
-					// finally a list of user accounts no-one can change password on
-					if (!StringUtils.isEmpty(groupCannotBeChangedPwdOn)) {
-						pwdResetProhibited.addAll(ldapService.getMembers(groupCannotBeChangedPwdOn.toLowerCase())
-								.stream()
-								.map(u -> u.getSAMAccountName().toLowerCase())
-								.collect(Collectors.toList()));
-					}
-	
-					// find all members of the password-circles that the user is a member of
-					for (String groupDN : groups) {
-						List<UserDTO> temp = ldapService.getMembers(groupDN);
-	
-						for (UserDTO member : temp) {
-							if (!pwdResetProhibited.contains(member.getSAMAccountName().toLowerCase())) {
-								boolean found = false;
-								for (UserDTO existing : othersDTOs) {
-									if (existing.getSAMAccountName().equalsIgnoreCase(member.getSAMAccountName())) {
-										found = true;
-										break;
-									}
-								}
-								
-								if (!found) {
-									othersDTOs.add(member);
-								}
-							}
-						}
-					}
-				}
-			}
-		}
-		
 		request.getSession().setAttribute(Constants.SESSION_SAMACCOUNTNAMES, sAMAccountNames);
 		request.getSession().setAttribute(Constants.SESSION_OTHERSAMACCOUNTNAMES, othersDTOs);
 
@@ -283,21 +142,12 @@ public class PasswordResetController {
 
 		model.addAttribute("users", sAMAccountNames);
 		model.addAttribute("others", othersAccountNames);
+		model.addAttribute("incomplete", Boolean.TRUE.equals(request.getSession().getAttribute(Constants.SESSION_LOOKUP_INCOMPLETE)));
 		model.addAttribute("logs", auditLogService.findByChangedAccountIn(allAccounts));
 
 		return "password/pickuser";
 	}
 
-	public boolean isAllowedToChangePassword(String sAMAccountName) throws Exception {
-		if (StringUtils.isEmpty(groupCannotChangePwd)) {
-			return true;
-		}
-
-		List<String> groups = ldapService.getGroups(sAMAccountName);
-
-		return !groups.contains(groupCannotChangePwd.toLowerCase());
-	}
-
 	@SuppressWarnings("unchecked")
 	@GetMapping("/password/reset/{sAMAccountName}")
 	public String resetGetWithSAMAccountName(Model model, @PathVariable("sAMAccountName") String sAMAccountName, @RequestParam(name = "badPassword", defaultValue = "false") boolean badPassword, HttpServletRequest request) throws Exception {
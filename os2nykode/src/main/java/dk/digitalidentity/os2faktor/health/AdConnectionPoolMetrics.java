@@ -0,0 +1,37 @@
+package dk.digitalidentity.os2faktor.health;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.stereotype.Component;
+
+import dk.digitalidentity.os2faktor.config.MeasuredPooledContextSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+@Component
+public class AdConnectionPoolMetrics implements MeterBinder {
+
+	@Autowired
+	private ContextSource contextSource;
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		if (!(contextSource instanceof MeasuredPooledContextSource)) {
+			return;
+		}
+
+		MeasuredPooledContextSource pool = (MeasuredPooledContextSource) contextSource;
+
+		Gauge.builder("ad.ldap.pool.active", pool, MeasuredPooledContextSource::getNumActive).register(registry);
+		Gauge.builder("ad.ldap.pool.idle", pool, MeasuredPooledContextSource::getNumIdle).register(registry);
+		Gauge.builder("ad.ldap.pool.waiting", pool, MeasuredPooledContextSource::getNumWaiters).register(registry);
+		Gauge.builder("ad.ldap.pool.wait.mean", pool, MeasuredPooledContextSource::getMeanBorrowWaitTimeMillis).baseUnit("milliseconds").register(registry);
+		Gauge.builder("ad.ldap.pool.wait.max", pool, MeasuredPooledContextSource::getMaxBorrowWaitTimeMillis).baseUnit("milliseconds").register(registry);
+		FunctionCounter.builder("ad.ldap.pool.borrowed", pool, MeasuredPooledContextSource::getBorrowedCount).register(registry);
+		FunctionCounter.builder("ad.ldap.pool.created", pool, MeasuredPooledContextSource::getCreatedCount).register(registry);
+		FunctionCounter.builder("ad.ldap.pool.destroyed", pool, MeasuredPooledContextSource::getDestroyedCount).register(registry);
+		FunctionCounter.builder("ad.ldap.pool.evicted", pool, MeasuredPooledContextSource::getDestroyedByEvictorCount).register(registry);
+	}
+}
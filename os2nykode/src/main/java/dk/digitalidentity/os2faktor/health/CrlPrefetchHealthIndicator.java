@@ -0,0 +1,41 @@
+package dk.digitalidentity.os2faktor.health;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openoces.ooapi.validation.CrlPrefetcher;
+import org.openoces.ooapi.validation.PartitionedCrlRevocationChecker;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+@Component
+public class CrlPrefetchHealthIndicator extends AbstractHealthIndicator {
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) throws Exception {
+		CrlPrefetcher crlPrefetcher = PartitionedCrlRevocationChecker.getInstance().getCrlPrefetcher();
+
+		builder.withDetail("enabled", crlPrefetcher.isRunning());
+		if (!crlPrefetcher.isRunning()) {
+			builder.up();
+			return;
+		}
+
+		List<String> unusableCrls = crlPrefetcher.getUnusableCrls();
+		Map<String, String> failures = crlPrefetcher.getFailures();
+
+		builder.withDetail("lastRun", crlPrefetcher.getLastRun())
+			.withDetail("knownCrls", crlPrefetcher.getKnownCrls().size())
+			.withDetail("unusableCrls", unusableCrls)
+			.withDetail("failures", failures);
+
+		// a failed refresh is not critical as long as the previous CRL is still usable
+		if (unusableCrls.size() > 0) {
+			builder.down();
+		}
+		else {
+			builder.up();
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package dk.digitalidentity.os2faktor.health;
+
+import org.openoces.ooapi.environment.Environments;
+import org.openoces.ooapi.environment.Environments.Environment;
+import org.openoces.ooapi.ldap.LDAPFactory;
+import org.openoces.ooapi.ldap.LdapConnectionPool;
+import org.springframework.stereotype.Component;
+
+import dk.nemid.common.OcesEnvironment;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+@Component
+public class LdapConnectionPoolMetrics implements MeterBinder {
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		OcesEnvironment.setOcesEnvironment();
+
+		for (Environment environment : Environments.getTrustedEnvironments()) {
+			LdapConnectionPool pool = LDAPFactory.getConnectionPool(environment);
+			String host = pool.getLdapServerName();
+
+			Gauge.builder("nemid.ldap.pool.active", pool, LdapConnectionPool::getActive).tag("host", host).register(registry);
+			Gauge.builder("nemid.ldap.pool.idle", pool, LdapConnectionPool::getIdle).tag("host", host).register(registry);
+			FunctionCounter.builder("nemid.ldap.pool.created", pool, LdapConnectionPool::getCreated).tag("host", host).register(registry);
+			FunctionCounter.builder("nemid.ldap.pool.reused", pool, LdapConnectionPool::getReused).tag("host", host).register(registry);
+			FunctionCounter.builder("nemid.ldap.pool.discarded", pool, LdapConnectionPool::getDiscarded).tag("host", host).register(registry);
+			FunctionCounter.builder("nemid.ldap.pool.failures", pool, LdapConnectionPool::getFailures).tag("host", host).register(registry);
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package dk.digitalidentity.os2faktor.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+import dk.digitalidentity.os2faktor.service.model.AccountLookupResult;
+import dk.digitalidentity.os2faktor.service.model.AccountLookupResult.Status;
+import dk.digitalidentity.os2faktor.util.Utilities;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds the accounts a user can change password on - their own accounts, the accounts of their children, and the
+ * members of the password-circles they administer. The lookups that do not depend on each other run concurrently on
+ * a bounded thread pool, and the whole lookup has a deadline (accountlookup.timeout). Lookups that fail or do not
+ * complete in time are left out of the result, which is then marked as PARTIAL, except for the own accounts and the
+ * check of whether they are allowed to change password, without which there is no result at all.
+ *
+ * The own accounts are looked up on the calling thread, so they are never rejected by a full pool. When the result is
+ * ready, the lookups that are still pending (e.g. the children of a user who is not allowed to change password) are
+ * cancelled, and taken out of the queue if they have not started yet.
+ */
+@Slf4j
+@Service
+public class AccountLookupService {
+
+	@Autowired
+	private LdapService ldapService;
+
+	@Autowired
+	private SQLService sqlService;
+
+	@Autowired
+	private RESTService restService;
+
+	@Autowired
+	private ChildrenCprService childrenCprService;
+
+	@Autowired
+	private PasswordCircleIndex passwordCircleIndex;
+
+	@Autowired
+	private AccountSetCalculator accountSetCalculator;
+
+	@Value("${ldap.base}")
+	private String ldapBase;
+
+	@Value("${ldap.groups.cannotChangePwd:}")
+	private String groupCannotChangePwd;
+
+	@Value("${ldap.groups.cannotBeChangedPwdOn:}")
+	private String groupCannotBeChangedPwdOn;
+
+	@Value("${ldap.groups.canChangeOthersPwd:}")
+	private String groupPasswordAdmins;
+
+	@Value("${ldap.groups.masterPwdAdmins:}")
+	private String groupPasswordMasterAdmins;
+
+	@Value("${ldap.groups.pwdCirclesOU:}")
+	private String passwordGroupsOU;
+
+	@Value("${ssn.lookup.method:AD}")
+	private String ssnLookupMethod;
+
+	@Value("${accountlookup.threads:16}")
+	private int threads;
+
+	@Value("${accountlookup.queue:200}")
+	private int queueSize;
+
+	@Value("${accountlookup.timeout:10000}")
+	private long timeout;
+
+	private ThreadPoolExecutor executor;
+	private Set<String> excludedGroups = new HashSet<>();
+
+	@PostConstruct
+	public void init() {
+		if (!StringUtils.isEmpty(passwordGroupsOU)) {
+			if (!passwordGroupsOU.toLowerCase().endsWith(ldapBase.toLowerCase())) {
+				passwordGroupsOU = passwordGroupsOU + "," + ldapBase;
+			}
+		}
+
+		// the groups that are never password-circles
+		for (String group : new String[] { groupCannotBeChangedPwdOn, groupCannotChangePwd, groupPasswordMasterAdmins }) {
+			if (!StringUtils.isEmpty(group)) {
+				excludedGroups.add(group.toLowerCase());
+			}
+		}
+
+		// a full queue rejects new lookups instead of piling them up, the rejected lookups are reported as failed
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "account-lookup-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param ssn the SSN of the logged in user
+	 * @param loggedInADUser the sAMAccountName of the logged in user if they logged in with AD, otherwise null. Only
+	 *        users logged in with AD can change password on the members of password-circles
+	 */
+	public AccountLookupResult lookup(String ssn, String loggedInADUser) {
+		PendingLookups lookups = new PendingLookups();
+
+		try {
+			return lookup(ssn, loggedInADUser, lookups);
+		}
+		finally {
+			lookups.cancelAll();
+		}
+	}
+
+	private AccountLookupResult lookup(String ssn, String loggedInADUser, PendingLookups lookups) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		AccountLookupResult result = new AccountLookupResult();
+
+		// start everything that does not depend on the own accounts right away. The group memberships that decide who can
+		// change password on what are always read from AD here, the rest of the reset flow reuses them from the cache
+		CompletableFuture<List<CompletableFuture<List<UserDTO>>>> childrenFuture = lookups.supply(() -> childrenCprService.getChildren(ssn))
+				.thenApply(children -> children.stream()
+						.map(child -> lookups.supply(() -> ldapService.getSAMAccountNames(child.getCpr())))
+						.collect(Collectors.toList()));
+
+		CompletableFuture<CircleLookup> circlesFuture = null;
+		if (loggedInADUser != null && !StringUtils.isEmpty(passwordGroupsOU) && (!StringUtils.isEmpty(groupPasswordAdmins) || !StringUtils.isEmpty(groupPasswordMasterAdmins))) {
+			circlesFuture = lookups.supply(() -> {
+				ldapService.invalidateGroups(loggedInADUser);
+
+				return ldapService.getGroups(loggedInADUser);
+			}).thenApply(groups -> lookupCircles(groups, lookups));
+		}
+
+		List<UserDTO> accounts;
+		try {
+			accounts = getOwnAccounts(ssn);
+		}
+		catch (Exception ex) {
+			log.warn("Lookup of own accounts failed", ex);
+			result.failed("own accounts");
+			result.setStatus(Status.FAILED);
+			return done(result, ssn);
+		}
+		result.setAccounts(accounts);
+
+		Boolean allowed = await(isAllowedToChangePassword(accounts, lookups), deadline, "password permissions of own accounts", result);
+		if (allowed == null) {
+			result.setStatus(Status.FAILED);
+			return done(result, ssn);
+		}
+		else if (!allowed) {
+			result.setStatus(Status.NOT_ALLOWED);
+			return done(result, ssn);
+		}
+
+		List<CompletableFuture<List<UserDTO>>> childAccountsFutures = await(childrenFuture, deadline, "children", result);
+		if (childAccountsFutures != null) {
+			for (CompletableFuture<List<UserDTO>> childAccountsFuture : childAccountsFutures) {
+				List<UserDTO> childAccounts = await(childAccountsFuture, deadline, "accounts of child", result);
+				if (childAccounts != null) {
+					result.getOthers().addAll(childAccounts);
+				}
+			}
+		}
+
+		// without the prohibited accounts, none of the circle members can be shown safely
+		CircleLookup circles = (circlesFuture != null) ? await(circlesFuture, deadline, "groups of " + loggedInADUser, result) : null;
+		if (circles != null && !circles.members.isEmpty()) {
+			Set<String> prohibited = await(circles.prohibited, deadline, "accounts no-one can change password on", result);
+
+			if (prohibited != null) {
+				List<List<UserDTO>> circleMembers = new ArrayList<>();
+				for (int i = 0; i < circles.members.size(); i++) {
+					List<UserDTO> members = await(circles.members.get(i), deadline, "members of " + circles.groups.get(i), result);
+					if (members != null) {
+						circleMembers.add(members);
+					}
+				}
+
+				accountSetCalculator.addCircleMembers(result.getOthers(), circleMembers, prohibited);
+			}
+		}
+
+		if (!result.getFailedLookups().isEmpty()) {
+			result.setStatus(Status.PARTIAL);
+		}
+
+		return done(result, ssn);
+	}
+
+	private List<UserDTO> getOwnAccounts(String ssn) throws Exception {
+		if ("AD".equals(ssnLookupMethod)) {
+			return ldapService.getSAMAccountNames(ssn);
+		}
+		else if ("SQL".equals(ssnLookupMethod)) {
+			return sqlService.getSAMAccountNames(ssn);
+		}
+		else if ("REST".equals(ssnLookupMethod)) {
+			return restService.getSAMAccountNames(ssn);
+		}
+
+		return new ArrayList<>();
+	}
+
+	// checks all the accounts concurrently, and completes with false if any of them are prohibited from changing password
+	private CompletableFuture<Boolean> isAllowedToChangePassword(List<UserDTO> accounts, PendingLookups lookups) {
+		if (StringUtils.isEmpty(groupCannotChangePwd) || accounts.isEmpty()) {
+			return CompletableFuture.completedFuture(true);
+		}
+
+		List<CompletableFuture<Boolean>> checks = accounts.stream()
+				.map(account -> lookups.supply(() -> {
+					ldapService.invalidateGroups(account.getSAMAccountName());
+
+					return !ldapService.getGroups(account.getSAMAccountName()).contains(groupCannotChangePwd.toLowerCase());
+				}))
+				.collect(Collectors.toList());
+
+		return CompletableFuture.allOf(checks.toArray(new CompletableFuture<?>[0]))
+				.thenApply(v -> checks.stream().allMatch(CompletableFuture::join));
+	}
+
+	// given the groups of the logged in user, starts the lookups of the members of the password-circles they administer
+	private CircleLookup lookupCircles(List<String> groups, PendingLookups lookups) {
+		CircleLookup lookup = new CircleLookup();
+
+		boolean canChangePasswordMasterAdmin = groups.stream().anyMatch(g -> g.equalsIgnoreCase(groupPasswordMasterAdmins));
+		boolean canChangePasswordAdmin = canChangePasswordMasterAdmin || groups.stream().anyMatch(g -> g.equalsIgnoreCase(groupPasswordAdmins));
+		if (!canChangePasswordAdmin) {
+			return lookup;
+		}
+
+		// filter the users list of group memberships, so we only get the "password-circles" that the user is a member of
+		groups = accountSetCalculator.findPasswordCircles(groups, excludedGroups, passwordGroupsOU);
+
+		if (groups.isEmpty()) {
+			return lookup;
+		}
+
+		List<CompletableFuture<List<UserDTO>>> prohibited = new ArrayList<>();
+
+		// if the user is not a master-admin, do not allow changing password on admins
+		if (!canChangePasswordMasterAdmin) {
+			prohibited.add(getMembers(groupPasswordAdmins.toLowerCase(), lookups));
+		}
+
+		// no-one can change password on master-admins
+		if (!StringUtils.isEmpty(groupPasswordMasterAdmins)) {
+			prohibited.add(getMembers(groupPasswordMasterAdmins.toLowerCase(), lookups));
+		}
+
+		// finally a list of user accounts no-one can change password on
+		if (!StringUtils.isEmpty(groupCannotBeChangedPwdOn)) {
+			prohibited.add(getMembers(groupCannotBeChangedPwdOn.toLowerCase(), lookups));
+		}
+
+		lookup.prohibited = CompletableFuture.allOf(prohibited.toArray(new CompletableFuture<?>[0]))
+				.thenApply(v -> accountSetCalculator.toAccountSet(prohibited.stream().map(CompletableFuture::join).collect(Collectors.toList())));
+
+		// find all members of the password-circles that the user is a member of
+		for (String groupDN : groups) {
+			lookup.groups.add(groupDN);
+			lookup.members.add(getMembers(groupDN, lookups));
+		}
+
+		return lookup;
+	}
+
+	// members of password-circles and of the admin and protected groups are read from the index when it has them
+	private CompletableFuture<List<UserDTO>> getMembers(String groupDN, PendingLookups lookups) {
+		List<UserDTO> members = passwordCircleIndex.getMembers(groupDN);
+		if (members != null) {
+			return CompletableFuture.completedFuture(members);
+		}
+
+		return lookups.supply(() -> ldapService.getMembers(groupDN));
+	}
+
+	// waits for the lookup until the deadline, and returns null if it failed or did not complete in time
+	private static <T> T await(CompletableFuture<T> future, long deadline, String lookup, AccountLookupResult result) {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException ex) {
+			future.cancel(false);
+			log.warn("Lookup of " + lookup + " did not complete in time");
+		}
+		catch (ExecutionException ex) {
+			log.warn("Lookup of " + lookup + " failed", ex.getCause());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			log.warn("Interrupted while waiting for lookup of " + lookup);
+		}
+
+		result.failed(lookup);
+
+		return null;
+	}
+
+	private static AccountLookupResult done(AccountLookupResult result, String ssn) {
+		if (!result.getFailedLookups().isEmpty()) {
+			log.warn("Account lookup for " + Utilities.maskSsn(ssn) + " was " + result.getStatus() + ", failed lookups: " + result.getFailedLookups());
+		}
+
+		return result;
+	}
+
+	// the lookups started for one call to lookup, which are all cancelled when it returns
+	private class PendingLookups {
+		private final Queue<CompletableFuture<?>> lookups = new ConcurrentLinkedQueue<>();
+		private volatile boolean cancelled;
+
+		private <T> CompletableFuture<T> supply(Callable<T> lookup) {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			FutureTask<Void> task = new FutureTask<>(() -> {
+				try {
+					future.complete(lookup.call());
+				}
+				catch (Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			}, null);
+
+			// a cancelled lookup that has not started is taken out of the queue. One that has started runs to the end, which
+			// the LDAP read timeout puts a limit on
+			future.whenComplete((value, ex) -> {
+				if (future.isCancelled() && task.cancel(false)) {
+					executor.remove(task);
+				}
+			});
+
+			lookups.add(future);
+			if (cancelled) {
+				future.cancel(false);
+				return future;
+			}
+
+			try {
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException ex) {
+				future.completeExceptionally(ex);
+			}
+
+			return future;
+		}
+
+		private void cancelAll() {
+			cancelled = true;
+			lookups.forEach(lookup -> lookup.cancel(false));
+		}
+	}
+
+	private static class CircleLookup {
+		private CompletableFuture<Set<String>> prohibited;
+		private List<String> groups = new ArrayList<>();
+		private List<CompletableFuture<List<UserDTO>>> members = new ArrayList<>();
+	}
+}
@@ -0,0 +1,81 @@
+package dk.digitalidentity.os2faktor.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+
+/**
+ * The set computations behind the list of accounts a user can change password on. sAMAccountNames and group DNs are
+ * compared case-insensitively, so everything is lowercased once and looked up in hash sets, which keeps the work linear
+ * in the number of group members, also for circles with thousands of members.
+ */
+@Component
+public class AccountSetCalculator {
+
+	/**
+	 * @param groups the lowercase DNs of the groups a password admin is a member of
+	 * @param excludedGroups the lowercase DNs of the groups that are never password-circles, even if they are in the OU
+	 * @param passwordGroupsOU the DN of the OU holding the password-circles
+	 * @return the groups that are password-circles, in the given order
+	 */
+	public List<String> findPasswordCircles(List<String> groups, Set<String> excludedGroups, String passwordGroupsOU) {
+		String ou = passwordGroupsOU.toLowerCase();
+		List<String> result = new ArrayList<>();
+
+		for (String group : groups) {
+			String lowerCaseGroup = group.toLowerCase();
+
+			if (!excludedGroups.contains(lowerCaseGroup) && lowerCaseGroup.contains(ou)) {
+				result.add(group);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return the lowercase sAMAccountNames of all the accounts
+	 */
+	public Set<String> toAccountSet(Collection<List<UserDTO>> accountLists) {
+		Set<String> result = new HashSet<>();
+
+		for (List<UserDTO> accounts : accountLists) {
+			for (UserDTO account : accounts) {
+				result.add(account.getSAMAccountName().toLowerCase());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the members of the password-circles to the other accounts, leaving out prohibited accounts and accounts that
+	 * are already there. The order is kept, so the accounts show up in the order of the circles and their members.
+	 *
+	 * @param others the accounts the user can already change password on (e.g. those of their children), which are added to
+	 * @param circleMembers the members of each password-circle
+	 * @param prohibited the lowercase sAMAccountNames of the accounts the user cannot change password on
+	 */
+	public void addCircleMembers(List<UserDTO> others, Collection<List<UserDTO>> circleMembers, Set<String> prohibited) {
+		Set<String> existing = new HashSet<>();
+		for (UserDTO other : others) {
+			existing.add(other.getSAMAccountName().toLowerCase());
+		}
+
+		for (List<UserDTO> members : circleMembers) {
+			for (UserDTO member : members) {
+				String sAMAccountName = member.getSAMAccountName().toLowerCase();
+
+				if (!prohibited.contains(sAMAccountName) && existing.add(sAMAccountName)) {
+					others.add(member);
+				}
+			}
+		}
+	}
+}
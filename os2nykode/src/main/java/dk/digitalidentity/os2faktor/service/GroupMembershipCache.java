@@ -0,0 +1,102 @@
+package dk.digitalidentity.os2faktor.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of the DN and the transitive group memberships of users, keyed by lowercase sAMAccountName. The
+ * group memberships expire after a short TTL (ldap.groups.cache.ttl), as they are used for security decisions, while
+ * the DN is kept for longer (ldap.groups.cache.dnTtl). A TTL of 0 disables that part of the cache.
+ */
+@Component
+public class GroupMembershipCache {
+
+	@Value("${ldap.groups.cache.ttl:60}")
+	private long ttl;
+
+	@Value("${ldap.groups.cache.dnTtl:3600}")
+	private long dnTtl;
+
+	@Value("${ldap.groups.cache.size:10000}")
+	private int maxEntries;
+
+	private Map<String, CacheEntry> entries;
+
+	@PostConstruct
+	public void init() {
+		entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return the DN of the user, or null if it is not cached
+	 */
+	public synchronized String getDn(String sAMAccountName) {
+		CacheEntry entry = entries.get(sAMAccountName);
+
+		return (entry != null && entry.dn != null && entry.dnExpires - System.nanoTime() > 0) ? entry.dn : null;
+	}
+
+	public synchronized void putDn(String sAMAccountName, String dn) {
+		if (dnTtl <= 0) {
+			return;
+		}
+
+		CacheEntry entry = entries.computeIfAbsent(sAMAccountName, k -> new CacheEntry());
+		entry.dn = dn;
+		entry.dnExpires = System.nanoTime() + TimeUnit.SECONDS.toNanos(dnTtl);
+	}
+
+	/**
+	 * @return the lowercase DNs of the groups the user is a member of, directly or through other groups, or null if they are not cached
+	 */
+	public synchronized List<String> getGroups(String sAMAccountName) {
+		CacheEntry entry = entries.get(sAMAccountName);
+
+		return (entry != null && entry.groups != null && entry.groupsExpires - System.nanoTime() > 0) ? entry.groups : null;
+	}
+
+	public synchronized void putGroups(String sAMAccountName, List<String> groups) {
+		if (ttl <= 0) {
+			return;
+		}
+
+		CacheEntry entry = entries.computeIfAbsent(sAMAccountName, k -> new CacheEntry());
+		entry.groups = Collections.unmodifiableList(new ArrayList<>(groups));
+		entry.groupsExpires = System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl);
+	}
+
+	/**
+	 * Forgets the DN and the group memberships of the user, so the next lookup reads both from AD. A cached DN may since
+	 * have been given to another account, which the group memberships under it cannot tell.
+	 */
+	public synchronized void invalidate(String sAMAccountName) {
+		entries.remove(sAMAccountName);
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	private static class CacheEntry {
+		private String dn;
+		private long dnExpires;
+		private List<String> groups;
+		private long groupsExpires;
+	}
+}
@@ -5,27 +5,42 @@ import static org.springframework.ldap.query.LdapQueryBuilder.query;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.ContextSource;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.LdapTemplate;
+import org.springframework.ldap.core.NameClassPairCallbackHandler;
 import org.springframework.ldap.core.support.AbstractContextMapper;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.query.ContainerCriteria;
 import org.springframework.ldap.query.SearchScope;
+import org.springframework.ldap.support.LdapEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import dk.digitalidentity.os2faktor.service.dto.UserDTO;
 import dk.digitalidentity.os2faktor.service.model.UsernameAndPassword;
@@ -34,16 +49,30 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @Service
 public class LdapService {
+	private static final String REQUEST_GROUPS = LdapService.class.getName() + ".groups";
 
 	@Autowired
 	private LdapTemplate ldapTemplate;
 
 	@Autowired
 	private SMSService smsService;
+
+	@Autowired
+	private GroupMembershipCache groupMembershipCache;
+
+	@Autowired
+	@Qualifier("directContextSource")
+	private ContextSource directContextSource;
+
+	@Value("${ldap.base}")
+	private String ldapBase;
 	
 	@Value("${ldap.field.ssn:}")
 	private String ssnField;
 		
+	@Value("${ldap.field.ssnIndex:}")
+	private String ssnIndexField;
+
 	@Value("${ldap.field.mobile:}")
 	private String mobileField;
 
@@ -54,19 +83,16 @@ public class LdapService {
 	}
 	
 	public String getSsn(String sAMAccountName) {
-		List<DirContextOperations> result = ldapTemplate.search(query()
-			.where("sAMAccountName").is(sAMAccountName), new AbstractContextMapper<DirContextOperations>() {
+		if (StringUtils.isEmpty(ssnField)) {
+			return null;
+		}
 
-				@Override
-				protected DirContextOperations doMapFromContext(DirContextOperations ctx) {
-					return ctx;
-				}
-			}
-		);
+		List<String> result = ldapTemplate.search(query()
+			.attributes(ssnField)
+			.where("sAMAccountName").is(sAMAccountName), (AttributesMapper<String>) attrs -> getAttribute(attrs, ssnField));
 
 		if (result != null && result.size() > 0) {
-			DirContextOperations personContext = result.get(0);
-			String ssnValue = (String) personContext.getObjectAttribute(ssnField);
+			String ssnValue = result.get(0);
 			
 			if (ssnValue != null && ssnValue.length() > 0) {
 				return ssnValue;
@@ -82,118 +108,190 @@ public class LdapService {
 			return new ArrayList<>();
 		}
 
-		// search with the given SSN (which does not have a dash)
-		List<DirContextOperations> result1 = ldapTemplate.search(query()
+		// the SSN is either stored in the ssn field (with or without a dash), or in a normalized form (10 digits, no dash)
+		// in a separate, indexed attribute, in which case a single equality match is enough
+		ContainerCriteria ssnCriteria;
+		if (!StringUtils.isEmpty(ssnIndexField)) {
+			ssnCriteria = query().where(ssnIndexField).is(ssn);
+		}
+		else {
+			String ssnWithDash = ssn.substring(0, 6) + "-" + ssn.substring(6);
+
+			ssnCriteria = query().where(ssnField).is(ssn).or(ssnField).is(ssnWithDash);
+		}
+
+		List<UserDTO> sAMAccountNames = ldapTemplate.search(query()
+			.attributes("sAMAccountName", "displayName")
 			.where("objectclass").is("person")
 			.and("userAccountControl:1.2.840.113556.1.4.803:").not().is("2")
-			.and(ssnField).is(ssn), new AbstractContextMapper<DirContextOperations>() {
+			.and(ssnCriteria), (AttributesMapper<UserDTO>) attrs -> {
+				UserDTO userDTO = new UserDTO();
+				userDTO.setName(getAttribute(attrs, "displayName"));
+				userDTO.setSAMAccountName(getAttribute(attrs, "sAMAccountName"));
 
-				@Override
-				protected DirContextOperations doMapFromContext(DirContextOperations ctx) {
-					return ctx;
-				}
+				return userDTO;
 			}
 		);
 
-		// now search for all with a dash added (because...)
-		String ssnWithSlash = ssn.substring(0, 6) + "-" + ssn.substring(6);		
-		List<DirContextOperations> result2 = ldapTemplate.search(query()
-			.where("objectclass").is("person")
-			.and("userAccountControl:1.2.840.113556.1.4.803:").not().is("2")
-			.and(ssnField).is(ssnWithSlash), new AbstractContextMapper<DirContextOperations>() {
+		return (sAMAccountNames != null) ? sAMAccountNames : new ArrayList<>();
+	}
 
-				@Override
-				protected DirContextOperations doMapFromContext(DirContextOperations ctx) {
-					return ctx;
-				}
+	/**
+	 * Returns the lowercase DNs of all groups the user is a member of, directly or through other groups. The result is
+	 * remembered for the rest of the current request, and cached for a short while across requests (see GroupMembershipCache).
+	 * Only calls made on the request thread are remembered - the lookups that AccountLookupService runs on its own threads
+	 * see no request, and use the cache alone. The returned list is a copy, and can be modified by the caller.
+	 */
+	public List<String> getGroups(String sAMAccountName) throws Exception {
+		if (sAMAccountName == null) {
+			return new ArrayList<>();
+		}
+
+		String key = sAMAccountName.toLowerCase();
+		Map<String, List<String>> requestGroups = getRequestGroups();
+
+		List<String> groups = (requestGroups != null) ? requestGroups.get(key) : null;
+		if (groups == null) {
+			groups = groupMembershipCache.getGroups(key);
+
+			if (groups == null) {
+				groups = lookupGroups(sAMAccountName, key);
+				groupMembershipCache.putGroups(key, groups);
+			}
+
+			if (requestGroups != null) {
+				requestGroups.put(key, groups);
 			}
-		);
-		
-		List<DirContextOperations> result = new ArrayList<>();
-		if (result1 != null) {
-			result.addAll(result1);
 		}
-		if (result2 != null) {
-			result.addAll(result2);
+
+		return new ArrayList<>(groups);
+	}
+
+	/**
+	 * Forgets the cached DN and group memberships of the user, so the next call to getGroups searches for the user by
+	 * sAMAccountName and reads the group memberships from AD
+	 */
+	public void invalidateGroups(String sAMAccountName) {
+		if (sAMAccountName == null) {
+			return;
 		}
 
-		List<UserDTO> sAMAccountNames = new ArrayList<>();
-		for (int i = 0; i < result.size(); i++) {
-			DirContextOperations personContext = result.get(i);
-			String sAMAccountName = (String) personContext.getObjectAttribute("sAMAccountName");
-			String name = (String) personContext.getObjectAttribute("displayName");
+		String key = sAMAccountName.toLowerCase();
+		groupMembershipCache.invalidate(key);
 
-			UserDTO userDTO = new UserDTO();
-			userDTO.setName(name);
-			userDTO.setSAMAccountName(sAMAccountName);
-			
-			sAMAccountNames.add(userDTO);
+		Map<String, List<String>> requestGroups = getRequestGroups();
+		if (requestGroups != null) {
+			requestGroups.remove(key);
 		}
-		
-		return sAMAccountNames;
 	}
 
-	public List<String> getGroups(String sAMAccountName) throws Exception {
-		List<String> result = new ArrayList<>();
+	private List<String> lookupGroups(String sAMAccountName, String key) {
+		String dn = groupMembershipCache.getDn(key);
+
+		if (dn != null) {
+			List<String> result = lookupGroupsOfDn(dn);
+
+			// a user who has been moved or renamed in AD is no longer a member of anything under the cached DN. The
+			// security checks invalidate the cache first, so they never use a cached DN
+			if (!result.isEmpty()) {
+				return result;
+			}
+		}
 
-		// recursive version, somewhat slow
 		List<String> distinguishedNames = ldapTemplate.search(query()
+				.attributes("distinguishedName")
 				.where("sAMAccountName").is(sAMAccountName),
 		        (AttributesMapper<String>) attrs -> attrs.get("distinguishedName").get().toString());
 
-		if (distinguishedNames != null && distinguishedNames.size() > 0) {
-			result = ldapTemplate.search(query()
-					.searchScope(SearchScope.SUBTREE)
-					.where("member:1.2.840.113556.1.4.1941:").is(distinguishedNames.get(0)),
-			        (AttributesMapper<String>) attrs -> attrs.get("distinguishedName").get().toString().toLowerCase());
+		if (distinguishedNames == null || distinguishedNames.size() == 0) {
+			return new ArrayList<>();
 		}
-		
-		return result;
+
+		if (distinguishedNames.get(0).equals(dn)) {
+			return new ArrayList<>();
+		}
+
+		dn = distinguishedNames.get(0);
+		groupMembershipCache.putDn(key, dn);
+
+		return lookupGroupsOfDn(dn);
+	}
+
+	private List<String> lookupGroupsOfDn(String dn) {
+		// recursive version, somewhat slow
+		List<String> result = ldapTemplate.search(query()
+				.searchScope(SearchScope.SUBTREE)
+				.attributes("distinguishedName")
+				.where("member:1.2.840.113556.1.4.1941:").is(dn),
+		        (AttributesMapper<String>) attrs -> attrs.get("distinguishedName").get().toString().toLowerCase());
+
+		return (result != null) ? result : new ArrayList<>();
+	}
+
+	// the group memberships looked up during the current request, or null if not called as part of a request
+	@SuppressWarnings("unchecked")
+	private static Map<String, List<String>> getRequestGroups() {
+		RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+		if (requestAttributes == null) {
+			return null;
+		}
+
+		Map<String, List<String>> requestGroups = (Map<String, List<String>>) requestAttributes.getAttribute(REQUEST_GROUPS, RequestAttributes.SCOPE_REQUEST);
+		if (requestGroups == null) {
+			requestGroups = new HashMap<>();
+			requestAttributes.setAttribute(REQUEST_GROUPS, requestGroups, RequestAttributes.SCOPE_REQUEST);
+		}
+
+		return requestGroups;
 	}
 
 	public List<UserDTO> getMembers(String groupName) throws Exception {
 		List<UserDTO> result = new ArrayList<>();
+		getMembers(groupName, result::add);
+
+		return result;
+	}
 
+	/**
+	 * Hands each member of the group (directly or through other groups) to the consumer as the pages of the search
+	 * arrive, so large groups are not held in memory as search results
+	 */
+	public void getMembers(String groupName, Consumer<UserDTO> consumer) throws Exception {
 		SearchControls searchControls = new SearchControls();
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		searchControls.setReturningAttributes(new String[] { "sAMAccountName", "displayName" });
 		PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(500);
 
-		do {
-			List<DirContextOperations> ctxs = ldapTemplate.search(
-				"",
-				"(&(objectclass=person)(memberOf:1.2.840.113556.1.4.1941:=" + groupName + "))",
-				searchControls,
-				new AbstractContextMapper<DirContextOperations>() {
-
-					@Override
-					protected DirContextOperations doMapFromContext(DirContextOperations ctx) {
-						return ctx;
-					}
-				},
-				processor);
-
-			if (ctxs != null && ctxs.size() > 0) {
-
-				for (DirContextOperations ctx : ctxs) {
-					String sAMAccountName = (String) ctx.getObjectAttribute("sAMAccountName");
-					String name = (String) ctx.getObjectAttribute("displayName");
-
-					UserDTO userDto = new UserDTO();
-					userDto.setName(name);
-					userDto.setSAMAccountName(sAMAccountName);
-					result.add(userDto);
-				}
-			}
-		} while (processor.hasMore());
+		NameClassPairCallbackHandler handler = nameClassPair -> {
+			Attributes attrs = ((SearchResult) nameClassPair).getAttributes();
 
-		return result;
+			UserDTO userDto = new UserDTO();
+			userDto.setName(getAttribute(attrs, "displayName"));
+			userDto.setSAMAccountName(getAttribute(attrs, "sAMAccountName"));
+			consumer.accept(userDto);
+		};
+
+		// the connections of the ldapTemplate pool do not allow the paging control to be set, and the paging cookie is
+		// only valid on the connection that returned it, so all the pages are read on one direct connection
+		SingleContextSource.doWithSingleContext(directContextSource, ldap -> {
+			do {
+				ldap.search(
+					ldapBase,
+					"(&(objectclass=person)(memberOf:1.2.840.113556.1.4.1941:=" + LdapEncoder.filterEncode(groupName) + "))",
+					searchControls,
+					handler,
+					processor);
+			} while (processor.hasMore());
+
+			return null;
+		}, false, true, false);
 	}
 
 	public UsernameAndPassword resetPassword(String sAMAccountName, String newPassword) throws Exception {
-		DirContextOperations ctx = getDirContextOperations(sAMAccountName);
-		String upn = (String) ctx.getObjectAttribute("userPrincipalName");
-		String mobile = (String) (StringUtils.isEmpty(mobileField) ? null : ctx.getObjectAttribute(mobileField));
-		Name dn = ctx.getDn();
+		PasswordResetTarget target = getPasswordResetTarget(sAMAccountName);
+		String upn = target.userPrincipalName;
+		String mobile = target.mobile;
+		Name dn = target.dn;
 
 		final String password = "\"" + newPassword + "\"";
 	    ModificationItem changePwd = new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute("unicodepwd", password.getBytes("UTF-16LE")));
@@ -215,14 +313,22 @@ public class LdapService {
 		return usernameAndPassword;
 	}
 
-	private DirContextOperations getDirContextOperations(String sAMAccountName) throws Exception {
-		List<DirContextOperations> result = ldapTemplate.search(query()
+	private PasswordResetTarget getPasswordResetTarget(String sAMAccountName) throws Exception {
+		String[] attributes = StringUtils.isEmpty(mobileField) ? new String[] { "userPrincipalName" } : new String[] { "userPrincipalName", mobileField };
+
+		List<PasswordResetTarget> result = ldapTemplate.search(query()
+			.attributes(attributes)
 			.where("objectclass").is("person")
-			.and("sAMAccountName").is(sAMAccountName), new AbstractContextMapper<DirContextOperations>() {
+			.and("sAMAccountName").is(sAMAccountName), new AbstractContextMapper<PasswordResetTarget>() {
 
 				@Override
-				protected DirContextOperations doMapFromContext(DirContextOperations ctx) {
-					return ctx;
+				protected PasswordResetTarget doMapFromContext(DirContextOperations ctx) {
+					PasswordResetTarget target = new PasswordResetTarget();
+					target.dn = ctx.getDn();
+					target.userPrincipalName = ctx.getStringAttribute("userPrincipalName");
+					target.mobile = StringUtils.isEmpty(mobileField) ? null : ctx.getStringAttribute(mobileField);
+
+					return target;
 				}
 			}
 		);
@@ -235,6 +341,12 @@ public class LdapService {
 		return result.get(0);
 	}
 
+	private static String getAttribute(Attributes attrs, String name) throws NamingException {
+		Attribute attribute = attrs.get(name);
+
+		return (attribute != null) ? (String) attribute.get() : null;
+	}
+
 	private static void allowUntrustedCert() {
 		TrustManager[] trustAllCerts = new TrustManager[] {
 			new X509TrustManager() {
@@ -266,4 +378,10 @@ public class LdapService {
 			log.error("Failed to flag all certificates as trusted!", ex);
 		}
 	}
+
+	private static class PasswordResetTarget {
+		private Name dn;
+		private String userPrincipalName;
+		private String mobile;
+	}
 }
@@ -8,6 +8,7 @@ import javax.servlet.http.HttpSession;
 
 import org.openoces.ooapi.certificate.CertificateStatus;
 import org.openoces.ooapi.certificate.PocesCertificate;
+import org.openoces.ooapi.validation.PartitionedCrlRevocationChecker;
 import org.openoces.securitypackage.LogonHandler;
 import org.openoces.serviceprovider.CertificateAndStatus;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +32,9 @@ public class NemIDService {
 
 	static {
 		OcesEnvironment.setOcesEnvironment();	
+
+		// initialize the CRL cache during startup, so any stored CRLs are loaded before the first login
+		PartitionedCrlRevocationChecker.getInstance();
 	}
 
 	public void populateModel(Model model, HttpServletRequest request) {
@@ -0,0 +1,304 @@
+package dk.digitalidentity.os2faktor.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
+import org.springframework.ldap.core.AttributesMapper;
+import org.springframework.ldap.core.ContextExecutor;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.ldap.support.LdapEncoder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory index of the transitive members of every password-circle (the groups under ldap.groups.pwdCirclesOU) and
+ * of the admin and protected groups, so an admin logging in does not wait for a recursive search per group.
+ *
+ * The index is refreshed in the background every ldap.groups.index.refresh milliseconds. A refresh asks the domain
+ * controller for its highestCommittedUSN, and only reloads the groups where the group, one of its nested groups or one
+ * of its members has a higher uSNChanged than at the last refresh. uSNChanged is local to each domain controller, so
+ * the whole index is reloaded if the domain controller changes or cannot tell its USN, and at least every
+ * ldap.groups.index.fullRefresh milliseconds, which also drops deleted users and groups. A refresh runs on a single
+ * direct connection, so the USN and the searches always come from the same domain controller.
+ *
+ * Disabled by default (ldap.groups.index.enabled), in which case getMembers always returns null, and the members are
+ * looked up in AD when needed.
+ */
+@Slf4j
+@Component
+public class PasswordCircleIndex {
+	private static final String MEMBERS_FILTER = "(&(objectclass=person)(memberOf:1.2.840.113556.1.4.1941:=%s))";
+	private static final String NESTED_GROUPS_FILTER = "(&(objectclass=group)(memberOf:1.2.840.113556.1.4.1941:=%s))";
+	private static final String CHANGED_FILTER = "(&(|(objectclass=group)(objectclass=person))(uSNChanged>=%d))";
+
+	@Autowired
+	@Qualifier("directContextSource")
+	private ContextSource directContextSource;
+
+	@Value("${ldap.base}")
+	private String ldapBase;
+
+	@Value("${ldap.groups.pwdCirclesOU:}")
+	private String passwordGroupsOU;
+
+	@Value("${ldap.groups.canChangeOthersPwd:}")
+	private String groupPasswordAdmins;
+
+	@Value("${ldap.groups.masterPwdAdmins:}")
+	private String groupPasswordMasterAdmins;
+
+	@Value("${ldap.groups.cannotBeChangedPwdOn:}")
+	private String groupCannotBeChangedPwdOn;
+
+	@Value("${ldap.groups.index.enabled:false}")
+	private boolean enabled;
+
+	@Value("${ldap.groups.index.fullRefresh:86400000}")
+	private long fullRefreshInterval;
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @param groupDN the DN of a password-circle, or of one of the admin or protected groups
+	 * @return the transitive members of the group, or null if the group is not in the index (or the index is disabled or not loaded yet)
+	 */
+	public List<UserDTO> getMembers(String groupDN) {
+		Snapshot current = snapshot;
+		if (!enabled || current == null) {
+			return null;
+		}
+
+		IndexedGroup group = current.groups.get(groupDN.toLowerCase());
+		if (group == null) {
+			return null;
+		}
+
+		List<UserDTO> result = new ArrayList<>(group.members.size());
+		for (IndexedUser member : group.members.values()) {
+			UserDTO userDTO = new UserDTO();
+			userDTO.setName(member.name);
+			userDTO.setSAMAccountName(member.sAMAccountName);
+			result.add(userDTO);
+		}
+
+		return result;
+	}
+
+	@Scheduled(fixedDelayString = "${ldap.groups.index.refresh:60000}")
+	public void refresh() {
+		if (!enabled || StringUtils.isEmpty(passwordGroupsOU)) {
+			return;
+		}
+
+		try {
+			SingleContextSource.doWithSingleContext(directContextSource, ldap -> {
+				refresh(ldap);
+
+				return null;
+			}, false, true, false);
+		}
+		catch (Exception ex) {
+			log.error("Failed to refresh the password-circle index", ex);
+		}
+	}
+
+	private void refresh(LdapOperations ldap) {
+		long start = System.currentTimeMillis();
+		Snapshot current = snapshot;
+		RootDse rootDse = readRootDse(ldap);
+
+		if (current == null || rootDse == null || !rootDse.dsServiceName.equals(current.dsServiceName) || start - current.fullRefreshTime > fullRefreshInterval) {
+			Map<String, IndexedGroup> groups = new HashMap<>();
+			for (String groupDN : findTrackedGroups(ldap)) {
+				groups.put(groupDN, loadGroup(ldap, groupDN));
+			}
+
+			snapshot = new Snapshot(groups, rootDse, start);
+			log.info("Loaded " + groups.size() + " groups into the password-circle index in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		else if (rootDse.highestCommittedUSN != current.highestCommittedUSN) {
+			Set<String> changed = findChangedSince(ldap, current.highestCommittedUSN);
+
+			Map<String, IndexedGroup> groups = new HashMap<>();
+			int reloaded = 0;
+			for (String groupDN : findTrackedGroups(ldap)) {
+				IndexedGroup group = current.groups.get(groupDN);
+
+				if (group == null || changed.contains(groupDN) || group.isAffectedBy(changed)) {
+					group = loadGroup(ldap, groupDN);
+					reloaded++;
+				}
+
+				groups.put(groupDN, group);
+			}
+
+			snapshot = new Snapshot(groups, rootDse, current.fullRefreshTime);
+			log.debug("Reloaded " + reloaded + " of " + groups.size() + " groups in the password-circle index after " + changed.size() + " changes");
+		}
+	}
+
+	// the lowercase DNs of all the groups under the password-circle OU, and of the configured admin and protected groups
+	private Set<String> findTrackedGroups(LdapOperations ldap) {
+		Set<String> result = new LinkedHashSet<>();
+
+		// the OU may be given with or without the base, the search needs it with
+		String ou = passwordGroupsOU;
+		if (!ou.toLowerCase().endsWith(ldapBase.toLowerCase())) {
+			ou = ou + "," + ldapBase;
+		}
+
+		result.addAll(search(ldap, ou, "(objectclass=group)", attrs -> getAttribute(attrs, "distinguishedName").toLowerCase(), "distinguishedName"));
+
+		for (String group : new String[] { groupPasswordAdmins, groupPasswordMasterAdmins, groupCannotBeChangedPwdOn }) {
+			if (!StringUtils.isEmpty(group)) {
+				result.add(group.toLowerCase());
+			}
+		}
+
+		return result;
+	}
+
+	private IndexedGroup loadGroup(LdapOperations ldap, String groupDN) {
+		IndexedGroup group = new IndexedGroup();
+		String encodedDN = LdapEncoder.filterEncode(groupDN);
+
+		for (IndexedUser member : search(ldap, ldapBase, String.format(MEMBERS_FILTER, encodedDN), this::toIndexedUser, "distinguishedName", "sAMAccountName", "displayName")) {
+			if (member.sAMAccountName != null) {
+				group.members.put(member.sAMAccountName.toLowerCase(), member);
+				group.memberDNs.add(member.dn);
+			}
+		}
+
+		group.nestedGroupDNs.addAll(search(ldap, ldapBase, String.format(NESTED_GROUPS_FILTER, encodedDN), attrs -> getAttribute(attrs, "distinguishedName").toLowerCase(), "distinguishedName"));
+
+		return group;
+	}
+
+	// the lowercase DNs of all groups and users changed after the given USN
+	private Set<String> findChangedSince(LdapOperations ldap, long highestCommittedUSN) {
+		return new HashSet<>(search(ldap, ldapBase, String.format(CHANGED_FILTER, highestCommittedUSN + 1), attrs -> getAttribute(attrs, "distinguishedName").toLowerCase(), "distinguishedName"));
+	}
+
+	private IndexedUser toIndexedUser(Attributes attrs) throws NamingException {
+		IndexedUser user = new IndexedUser();
+		user.dn = getAttribute(attrs, "distinguishedName").toLowerCase();
+		user.sAMAccountName = getAttribute(attrs, "sAMAccountName");
+		user.name = getAttribute(attrs, "displayName");
+
+		return user;
+	}
+
+	private <T> List<T> search(LdapOperations ldap, String base, String filter, AttributesMapper<T> mapper, String... attributes) {
+		List<T> result = new ArrayList<>();
+
+		SearchControls searchControls = new SearchControls();
+		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		searchControls.setReturningAttributes(attributes);
+		PagedResultsDirContextProcessor processor = new PagedResultsDirContextProcessor(500);
+
+		do {
+			List<T> page = ldap.search(base, filter, searchControls, mapper, processor);
+			if (page != null) {
+				result.addAll(page);
+			}
+		} while (processor.hasMore());
+
+		return result;
+	}
+
+	// reads the rootDSE of the domain controller, which the connection is opened at
+	private RootDse readRootDse(LdapOperations ldap) {
+		try {
+			return ldap.executeReadOnly((ContextExecutor<RootDse>) ctx -> {
+				Attributes attrs = ctx.getAttributes("", new String[] { "highestCommittedUSN", "dsServiceName" });
+				String highestCommittedUSN = getAttribute(attrs, "highestCommittedUSN");
+				String dsServiceName = getAttribute(attrs, "dsServiceName");
+
+				if (highestCommittedUSN == null || dsServiceName == null) {
+					return null;
+				}
+
+				RootDse rootDse = new RootDse();
+				rootDse.highestCommittedUSN = Long.parseLong(highestCommittedUSN);
+				rootDse.dsServiceName = dsServiceName;
+
+				return rootDse;
+			});
+		}
+		catch (Exception ex) {
+			log.warn("Could not read highestCommittedUSN from the rootDSE, reloading the whole password-circle index: " + ex.getMessage());
+
+			return null;
+		}
+	}
+
+	private static String getAttribute(Attributes attrs, String name) throws NamingException {
+		Attribute attribute = attrs.get(name);
+
+		return (attribute != null) ? (String) attribute.get() : null;
+	}
+
+	private static class RootDse {
+		private long highestCommittedUSN;
+		private String dsServiceName;
+	}
+
+	private static class Snapshot {
+		private final Map<String, IndexedGroup> groups;
+		private final long highestCommittedUSN;
+		private final String dsServiceName;
+		private final long fullRefreshTime;
+
+		private Snapshot(Map<String, IndexedGroup> groups, RootDse rootDse, long fullRefreshTime) {
+			this.groups = Collections.unmodifiableMap(groups);
+			this.highestCommittedUSN = (rootDse != null) ? rootDse.highestCommittedUSN : -1;
+			this.dsServiceName = (rootDse != null) ? rootDse.dsServiceName : "";
+			this.fullRefreshTime = fullRefreshTime;
+		}
+	}
+
+	private static class IndexedGroup {
+		// keyed by lowercase sAMAccountName
+		private final Map<String, IndexedUser> members = new LinkedHashMap<>();
+		private final Set<String> memberDNs = new HashSet<>();
+		private final Set<String> nestedGroupDNs = new HashSet<>();
+
+		private boolean isAffectedBy(Set<String> changedDNs) {
+			for (String dn : changedDNs) {
+				if (memberDNs.contains(dn) || nestedGroupDNs.contains(dn)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+	}
+
+	private static class IndexedUser {
+		private String dn;
+		private String sAMAccountName;
+		private String name;
+	}
+}
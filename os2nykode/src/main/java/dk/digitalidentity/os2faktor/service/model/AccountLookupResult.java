@@ -0,0 +1,38 @@
+package dk.digitalidentity.os2faktor.service.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.digitalidentity.os2faktor.service.dto.UserDTO;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The accounts a user can change password on, as found by <code>AccountLookupService</code>
+ */
+@Getter
+@Setter
+public class AccountLookupResult {
+
+	public enum Status {
+		/** all lookups completed */
+		OK,
+		/** the own accounts were found, but some of the other accounts could not be looked up in time */
+		PARTIAL,
+		/** one of the own accounts is not allowed to change password */
+		NOT_ALLOWED,
+		/** the own accounts, or whether they are allowed to change password, could not be looked up */
+		FAILED
+	}
+
+	private Status status = Status.OK;
+	private List<UserDTO> accounts = new ArrayList<>();
+	private List<UserDTO> others = new ArrayList<>();
+
+	// the lookups that failed or did not complete before the deadline, for logging
+	private List<String> failedLookups = new ArrayList<>();
+
+	public void failed(String lookup) {
+		failedLookups.add(lookup);
+	}
+}